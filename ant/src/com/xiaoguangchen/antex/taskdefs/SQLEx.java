@@ -18,17 +18,38 @@
 package com.xiaoguangchen.antex.taskdefs;
 
 import java.io.*;
+import java.sql.BatchUpdateException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.Driver;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
@@ -37,6 +58,34 @@ import org.apache.tools.ant.taskdefs.JDBCTask;
 import org.apache.tools.ant.types.EnumeratedAttribute;
 import org.apache.tools.ant.types.FileSet;
 
+import com.xiaoguangchen.antex.taskdefs.sql.CheckpointJournal;
+import com.xiaoguangchen.antex.taskdefs.sql.CommentSymbolTrie;
+import com.xiaoguangchen.antex.taskdefs.sql.CompiledDialect;
+import com.xiaoguangchen.antex.taskdefs.sql.Dialect;
+import com.xiaoguangchen.antex.taskdefs.sql.DialectRegistry;
+import com.xiaoguangchen.antex.taskdefs.sql.ExecutionMetrics;
+import com.xiaoguangchen.antex.taskdefs.sql.FanOutMatrix;
+import com.xiaoguangchen.antex.taskdefs.sql.IncludeCache;
+import com.xiaoguangchen.antex.taskdefs.sql.InsertCoalescer;
+import com.xiaoguangchen.antex.taskdefs.sql.LineSource;
+import com.xiaoguangchen.antex.taskdefs.sql.MappedFileLineSource;
+import com.xiaoguangchen.antex.taskdefs.sql.PropertySubstitutor;
+import com.xiaoguangchen.antex.taskdefs.sql.ReaderLineSource;
+import com.xiaoguangchen.antex.taskdefs.sql.ResultExporter;
+import com.xiaoguangchen.antex.taskdefs.sql.ScriptHistory;
+import com.xiaoguangchen.antex.taskdefs.sql.ScriptInput;
+import com.xiaoguangchen.antex.taskdefs.sql.SeekableLineSource;
+import com.xiaoguangchen.antex.taskdefs.sql.ShardRouter;
+import com.xiaoguangchen.antex.taskdefs.sql.ShardedExecutor;
+import com.xiaoguangchen.antex.taskdefs.sql.SQLStatementSplitter;
+import com.xiaoguangchen.antex.taskdefs.sql.StatementCache;
+import com.xiaoguangchen.antex.taskdefs.sql.StatementClassifier;
+import com.xiaoguangchen.antex.taskdefs.sql.StatementPipeline;
+import com.xiaoguangchen.antex.taskdefs.sql.StatementPlan;
+import com.xiaoguangchen.antex.taskdefs.sql.StatementStats;
+import com.xiaoguangchen.antex.taskdefs.sql.TaskGraph;
+import com.xiaoguangchen.antex.taskdefs.sql.TokenMatcher;
+
 /**
  * This SQL extension is based on originally based on Apache Ant SQLExec. Here I modified
  * so it can handle SQL stored procedures, function and trigger and native SQLs.
@@ -99,6 +148,222 @@ import org.apache.tools.ant.types.FileSet;
  *                be executed and committed. If it is turned off the statements will all be executed as one transaction.</p>
  *
  *        </li>
+ *        <li> batchsize:
+ *            <p>When <i>batchsize</i> is greater than 1, consecutive INSERT, UPDATE, DELETE and MERGE statements
+ *               are sent to the database with JDBC addBatch/executeBatch, up to batchsize statements per round trip.
+ *               The batch is executed before any other kind of statement (DDL, queries, stored procedure calls)
+ *               and before each commit. A transaction can override the size with its own <i>batchsize</i>.
+ *            </p>
+ *        </li>
+ *
+ *        <li> coalesceinserts, coalescesize:
+ *            <p>When <i>coalesceinserts</i> is greater than 1, consecutive single row
+ *               <code>INSERT INTO table (columns) VALUES (...)</code> statements into the same table with the same
+ *               columns are merged into one multi-row INSERT of up to coalesceinserts rows (1000 for SQL Server)
+ *               and <i>coalescesize</i> characters (default 65536). Oracle does not support multi-row VALUES, the
+ *               attribute is ignored there. Every original statement counts as executed; if a merged statement
+ *               fails, it is rolled back to a savepoint when possible and its statements are executed one at a
+ *               time, so errors are reported for the original statement, file and line.
+ *            </p>
+ *        </li>
+ *
+ *        <li> statementcachesize:
+ *            <p>When <i>statementcachesize</i> is greater than 0, up to that many prepared callable statements
+ *               are kept open per connection, keyed by the SQL text, and reused when the same statement is
+ *               executed again. The least recently used statement is closed when the cache is full. The cache
+ *               is not used together with keepStatementOpen.
+ *            </p>
+ *        </li>
+ *
+ *        <li> parallelism, dependsOn:
+ *            <p>When <i>parallelism</i> is greater than 1, transactions (including the ones created for the files of
+ *               the filesets) are executed concurrently on up to parallelism connections, each transaction being
+ *               committed on its own connection. A transaction can be given a <i>name</i> and declare the
+ *               transactions it must run after with <i>dependsOn</i> (comma separated names). Transactions created
+ *               for fileset files are named by their path relative to the fileset directory, a transaction with a
+ *               src file defaults to the path of the file. Among the transactions that are ready, the one with the
+ *               longest chain of work (by script size) ahead of it is started first.
+ *               With parallelism 1 the transactions run in declaration order, moved after their dependencies.
+ *            </p>
+ *        </li>
+ *
+ *        <li> incremental, trackingtable:
+ *            <p>When <i>incremental</i> is true, every transaction executing a file is recorded in the
+ *               <i>trackingtable</i> (default SQLEX_HISTORY, created if missing) with the SHA-256 checksum of the
+ *               file, when and how long it ran and whether all its statements succeeded. Files already applied
+ *               successfully with the same checksum are skipped, so only new and changed files are executed.
+ *               Files are identified by their path relative to the fileset directory (or the project directory
+ *               for src), or by the transaction name. The record is committed with the transaction itself; a
+ *               transaction rolled back on error is not recorded and runs again next time.
+ *            </p>
+ *        </li>
+ *
+ *        <li> pipeline:
+ *            <p>When <i>pipeline</i> is true, the statements of a transaction are read, stripped of comments,
+ *               property replaced and parsed by a separate thread, up to <i>pipelinesize</i> statements (default 256)
+ *               ahead of the statement being executed, so the parsing overlaps with the database round trips.
+ *               Statements are still executed in script order, including the ones of redirected files, and
+ *               <i>onerror</i> applies as without the pipeline.
+ *            </p>
+ *        </li>
+ *
+ *        <li> shards, shardkey:
+ *            <p>When <i>shards</i> is greater than 1, the statements of each transaction are split across that
+ *               many connections, each executing its part on its own thread while the script is parsed. Without
+ *               <i>shardkey</i>, each table is assigned to one shard, so the statements of a table keep their
+ *               order. With <i>shardkey</i>, single row INSERTs naming that column go to the shard of the hash
+ *               of its value. Only INSERT ... VALUES, UPDATE and DELETE statements (not UPDATE and DELETE with
+ *               a shard key) which do not read other tables are split; any other statement, DDL for one, is
+ *               executed on its own once every shard has executed and committed the statements before it.
+ *               Each shard commits on its own (see <i>commitevery</i>), so a sharded transaction is not atomic,
+ *               and rows referencing rows of another table must not rely on immediate constraint checks. The
+ *               throughput of each shard is logged. Not used with <i>parallelism</i>, <i>journal</i> or
+ *               <i>dryrun</i>.
+ *            </p>
+ *        </li>
+ *
+ *        <li> poolref:
+ *            <p>Reference to a <i>sqlpool</i> defined earlier in the build. Connections are then borrowed from the
+ *               pool instead of being opened, and returned to it (not closed) when the task is done.
+ *            </p>
+ *        </li>
+ *
+ *        <li> exportformat:
+ *            <p>When <i>exportformat</i> is <b>csv</b> or <b>tsv</b>, result sets are written to the <i>output</i> file
+ *               as comma or tab separated values instead of being printed: fields are quoted when needed, null
+ *               values are left empty, and the rows go through a large buffer, gzip compressed if <i>gzip</i> is
+ *               true. <i>outputencoding</i> sets the charset of the file. The number of rows, bytes and rows/sec
+ *               is logged at the end.
+ *            </p>
+ *        </li>
+ *
+ *        <li> statistics, slowest, reportfile:
+ *            <p>Every statement (and every JDBC batch) is timed and recorded with the file and line it starts on,
+ *               redirected files included. At the end, a summary with the latency percentiles and the rows affected
+ *               is logged, followed by the <i>slowest</i> (default 10) statements; at INFO level if <i>statistics</i>
+ *               is true, at VERBOSE level otherwise. <i>reportfile</i> writes the same statistics as JSON, to compare
+ *               runs.
+ *            </p>
+ *        </li>
+ *
+ *        <li> includecache, includegraph:
+ *            <p>A redirected (included) file is parsed once per task: its statements and nested includes are kept
+ *               in memory, keyed by canonical path, and replayed when the file is included again, unless it was
+ *               modified since. <i>includecache</i> false parses the file on every include. An include cycle fails
+ *               the task with the chain of files. The include graph and cache statistics are logged at VERBOSE
+ *               level, and written to <i>includegraph</i> in graphviz dot format if set.
+ *            </p>
+ *        </li>
+ *
+ *        <li> dryrun, planfile:
+ *            <p>When <i>dryrun</i> is true, no connection is opened: the transactions are parsed as for execution
+ *               (redirects, delimiters, comments, token mappings and property replacement), on <i>parallelism</i>
+ *               threads (default one per processor), and the statements are collected in execution order. The
+ *               number of statements per type is logged, and the plan, one statement per line with its file and
+ *               line, is written to <i>planfile</i> if set. The url, if any, only selects the vendor rules.
+ *               With <i>resume</i> true, the plan holds the statements a resumed run would execute, from the
+ *               restart points of the <i>journal</i>; the journal is left as it is.
+ *            </p>
+ *        </li>
+ *
+ *        <li> savepointchunk:
+ *            <p>With <i>autocommit</i> false and <i>onerror</i> continue, a failed statement leaves the transaction
+ *               aborted on some databases (PostgreSQL for one), so the following statements fail too. When
+ *               <i>savepointchunk</i> is greater than 0, a savepoint is taken every savepointchunk statements. When
+ *               a statement fails, the transaction is rolled back to the savepoint of its chunk, the statements
+ *               of the chunk executed before it are replayed, and the execution goes on after the failed statement.
+ *               A failed JDBC batch is replayed one statement at a time the same way, to isolate the bad
+ *               statements. Ignored if the driver does not support savepoints.
+ *            </p>
+ *        </li>
+ *
+ *        <li> compressed scripts:
+ *            <p>Source files, fileset files and redirect files may be gzip, zip or zlib compressed; the format is
+ *               taken from the magic bytes, or from the extension of files too short to have them. They are
+ *               decompressed as they are read, without a copy on disk. A zip entry is named
+ *               <code>archive.zip!/path/in/archive.sql</code>; a zip archive named alone is read entry by entry.
+ *               Relative redirects of an archived script resolve to entries of the same archive.
+ *            </p>
+ *        </li>
+ *
+ *        <li> mapthreshold, mapwindowsize:
+ *            <p>Script files of <i>mapthreshold</i> bytes and more (default 1 MB) are read through memory mapped
+ *               windows of <i>mapwindowsize</i> bytes (default 64 MB) instead of a reader, so scripts larger than
+ *               2 GB can be read. A smaller window uses less address space, on 32 bit JVMs for example.
+ *               Compressed scripts and scripts resumed from a journal are not mapped.
+ *            </p>
+ *        </li>
+ *
+ *        <li> commitevery, commitbytes, commitseconds:
+ *            <p>With <i>autocommit</i> false, a transaction is committed once, at its end. For large loads, the
+ *               transaction is also committed after <i>commitevery</i> statements, after <i>commitbytes</i>
+ *               characters of statements, or when the last commit is <i>commitseconds</i> old, whichever comes
+ *               first (the pending batch is executed first). A failure then only rolls back the statements since
+ *               the last commit. The number of commits and their time are part of the statistics.
+ *            </p>
+ *        </li>
+ *
+ *        <li> journal, resume, checkpointinterval:
+ *            <p>When <i>journal</i> is set, the restart point of each transaction is saved to that file: the
+ *               file, byte offset, line and statement ordinal after the last committed statement, for the
+ *               transaction file and each nested redirect file being executed. With <i>autocommit</i> true a
+ *               checkpoint is taken every <i>checkpointinterval</i> statements (default 1000), the pending
+ *               batch being executed first, and before a failed statement executed on its own; otherwise at
+ *               each commit, including the ones of <i>commitevery</i>, <i>commitbytes</i> and
+ *               <i>commitseconds</i>. With <i>resume</i> true, the transactions committed in
+ *               the journal are skipped, and the others seek to their restart point without reading the
+ *               content before it; a file changed since the checkpoint fails the task. The journal is deleted
+ *               when the task succeeds. Statements executed after the last checkpoint of a failed autocommit
+ *               run are executed again. The <i>pipeline</i> and the include cache are not used with a journal.
+ *               Offsets are only known for encodings where the line terminators are single ASCII bytes, a
+ *               journal cannot be used with other encodings (UTF-16). Compressed scripts are not checkpointed,
+ *               a warning is logged and a resumed run executes them again from the start.
+ *            </p>
+ *        </li>
+ *
+ *        <li> jmx, metricsfile, metricsinterval:
+ *            <p>Live counters of the task while it runs: statements executed and failed, rows affected, characters
+ *               of the script lines parsed, the file most recently started, commits, the statement rate over the
+ *               last <i>metricsinterval</i> seconds and the seconds since the last statement, to spot a stalled
+ *               load. With <i>jmx</i> true they are registered as the MBean
+ *               <code>com.xiaoguangchen.antex:type=SQLEx,name="task file:line"</code> while the task runs; with
+ *               <i>metricsfile</i> they are written every <i>metricsinterval</i> seconds in the Prometheus text
+ *               format, replacing the file in one rename, and a last time with sqlex_running 0 when the task ends.
+ *            </p>
+ *        </li>
+ *
+ *        <li> fanouturls, fanoutschemas, fanoutthreads:
+ *            <p>Executes the same statements against several databases or schemas. The transactions are parsed once
+ *               (as in <i>dryrun</i>), then their statements are executed against each target on its own connection,
+ *               up to <i>fanoutthreads</i> targets at a time, on virtual threads where the JVM has them. The targets
+ *               are the jdbc urls of <i>fanouturls</i> (the task url if not set), each combined with every schema of
+ *               <i>fanoutschemas</i>, made current with the schema statement of the dialect of the target url, or of
+ *               <i>dialect</i> if set. All targets use the userid and password of the task. <i>onerror</i> applies to
+ *               each target on its own: a target stopped by an error does not stop the others, and the task fails once
+ *               all targets are done. A matrix of the status, statement counts and timings of each target is logged.
+ *               Not used with <i>poolref</i>, <i>journal</i>, <i>incremental</i>, <i>output</i> or <i>shards</i>.
+ *            </p>
+ *        </li>
+ *
+ *        <li> property substitution, substitutetokens:
+ *            <p>${name} properties in the script lines are replaced with their values; with <i>substitutetokens</i>
+ *               true, so are @name@ tokens. Lines without either are passed on after one scan, and the value of each
+ *               name is looked up once per task execution. Undefined properties and tokens are left as they are.
+ *               The number of lines expanded and the expansion throughput are logged with the statistics.
+ *            </p>
+ *        </li>
+ *
+ *        <li> dialect:
+ *            <p>The comment symbols, default delimiter, redirect symbol, block starts (statements ended by the
+ *               outer delimiter), multi-row INSERT limit and column types come from the dialect of the database.
+ *               oracle, sqlserver (jdbc:microsoft:sqlserver urls only) and db2 are taken from the jdbc url,
+ *               other databases get the generic dialect. <i>dialect</i> names one of them, for example sqlserver
+ *               for the jdbc:sqlserver and jTDS drivers, one of the built-in mysql (also MariaDB), postgresql and
+ *               h2 dialects, which are never taken from the url, or the class of a {@link Dialect} implementation. The dialect tables are compiled once per jdbc url
+ *               and shared by all tasks; an explicit <i>redirect</i> or <i>delimiter</i> takes precedence.
+ *            </p>
+ *        </li>
+ *
  *        <li> on error:
  *            <p>The <i>onerror</i> attribute specifies how to proceed when an error occurs during the execution
  *             of one of the statements. The possible values are: <b>continue</b> execution, only show the error;
@@ -123,15 +388,31 @@ public class SQLEx extends JDBCTask {
         }
     }
 
+    /**
+     * result export formats, "csv" and "tsv"
+     */
+    public static class ExportFormat extends EnumeratedAttribute {
+        public static final String CSV = "csv";
+        public static final String TSV = "tsv";
+        public String[] getValues() {
+            return new String[] {CSV, TSV};
+        }
+    }
+
     static final int OTHER          = 0;
     static final int ORACLE         = 1;
     static final int DB2            = 2;
     static final int MS_SQLSERVER   = 3;
 
+    // scripts from this size on are memory mapped instead of read through a reader
+    static final long MAPPED_FILE_THRESHOLD = 1024 * 1024;
+
 
-    private int goodSql = 0;
+    private AtomicInteger goodSql = new AtomicInteger();
 
-    private int totalSql = 0;
+    private AtomicInteger totalSql = new AtomicInteger();
+
+    private AtomicLong rowsAffected = new AtomicLong();
 
     /**
      * if true, keep it open for sub-class to close it.
@@ -160,6 +441,9 @@ public class SQLEx extends JDBCTask {
      */
     private Vector< LineCommentSymbol> lineCommentSymbols = new Vector< LineCommentSymbol>();
 
+    // lineCommentSymbols compiled by dbInit
+    private volatile CommentSymbolTrie commentSymbols = null;
+
 
     /**
      * map specific string to other string
@@ -169,6 +453,9 @@ public class SQLEx extends JDBCTask {
      */
     private Vector mappedTokens = new Vector();
 
+    // mappedTokens compiled by dbInit
+    private volatile TokenMatcher tokenMatcher = null;
+
     /**
      * redirect, redirect file to another file
      *
@@ -179,11 +466,177 @@ public class SQLEx extends JDBCTask {
      */
     private String redirect = null;
 
+    // redirect in effect, set by dbInit from the redirect attribute or the dialect
+    private volatile String execRedirect = null;
+
+    /**
+     * dialect name or class, taken from the jdbc url if not set
+     */
+    private String dialectName = null;
+
+    // driver class, kept to connect to the fan-out targets without JDBCTask
+    private String driverName = null;
+
+    // dialect of the connection, resolved by dbInit
+    private volatile CompiledDialect dialect = null;
+
+    // the predefined token mappings were added
+    private boolean predefinedMappings = false;
+
     /**
      * SQL statement
      */
     protected CallableStatement cstatement = null;
 
+    /**
+     * session of the task connection
+     */
+    private Session mainSession = null;
+
+    /**
+     * number of DML statements sent in one JDBC batch, 0 or 1 disables batching
+     */
+    private int batchSize = 0;
+
+    /**
+     * maximum number of single row INSERTs merged into one statement, 0 or 1 disables merging,
+     * and maximum length of a merged statement
+     */
+    private int coalesceInserts = 0;
+
+    private int coalesceSize = 65536;
+
+    /**
+     * number of statements per savepoint with onerror continue in a transaction, 0 disables savepoints
+     */
+    private int savepointChunk = 0;
+
+    /**
+     * commit the transactions every so many statements, characters of statements or seconds
+     * without autocommit, 0 to commit at the end only
+     */
+    private int commitEvery = 0;
+
+    private long commitBytes = 0;
+
+    private int commitSeconds = 0;
+
+    /**
+     * restart points of the transactions, to resume a failed run,
+     * and number of statements between two checkpoints with autocommit
+     */
+    private File journalFile = null;
+
+    private boolean resume = false;
+
+    private int checkpointInterval = 1000;
+
+    private CheckpointJournal journal = null;
+
+    /**
+     * size from which script files are memory mapped, and size of the mapped windows
+     */
+    private long mapThreshold = MAPPED_FILE_THRESHOLD;
+
+    private int mapWindowSize = MappedFileLineSource.DEFAULT_WINDOW_SIZE;
+
+    /**
+     * number of prepared statements cached per connection, 0 disables the cache
+     */
+    private int statementCacheSize = 0;
+
+    /**
+     * number of transactions executed at the same time, each on its own connection
+     */
+    private int parallelism = 1;
+
+    /**
+     * statement timing: summary level, number of slowest statements reported and report file
+     */
+    private boolean statistics = false;
+
+    private int slowest = 10;
+
+    private File reportFile = null;
+
+    private StatementStats stats = null;
+
+    /**
+     * skip the files already applied, as recorded in the tracking table
+     */
+    private boolean incremental = false;
+
+    private String trackingTable = "SQLEX_HISTORY";
+
+    private ScriptHistory history = null;
+
+    private Map<String, String> appliedScripts = null;
+
+    /**
+     * parsed redirect files, replayed when included again, and the include graph
+     */
+    private boolean includeCacheEnabled = true;
+
+    private File includeGraph = null;
+
+    private IncludeCache includeCache = null;
+
+    /**
+     * parse only, writing the statements to the plan file instead of executing them
+     */
+    private boolean dryRun = false;
+
+    private File planFile = null;
+
+    private AtomicInteger skippedScripts = new AtomicInteger();
+
+    /**
+     * parse the statements on a separate thread, ahead of their execution
+     */
+    private boolean pipeline = false;
+
+    private int pipelineSize = 256;
+
+    /**
+     * execute the statements of a transaction on this number of connections, split by table
+     * or by the hash of the key column
+     */
+    private int shards = 0;
+
+    private String shardKey = null;
+
+    /**
+     * execute the statements, parsed once, against each of these jdbc urls and schemas
+     */
+    private List<String> fanOutUrls = new ArrayList<String>();
+    private List<String> fanOutSchemas = new ArrayList<String>();
+
+    // maximum number of fan-out targets executed at the same time
+    private int fanOutThreads = 8;
+
+    /**
+     * register the live counters of the task as a JMX MBean
+     */
+    private boolean jmx = false;
+
+    /**
+     * write the live counters to this file in the Prometheus text format
+     */
+    private File metricsFile = null;
+
+    // seconds between samples of the live counters
+    private int metricsInterval = 10;
+
+    // live counters, created by execute when jmx or metricsfile is set
+    private volatile ExecutionMetrics metrics = null;
+
+    /**
+     * reference to a build scoped connection pool
+     */
+    private String poolRef = null;
+
+    private DataSource pool = null;
+
 
     /**
      * allow non-delimiter SQL
@@ -233,6 +686,23 @@ public class SQLEx extends JDBCTask {
     private File output = null;
 
 
+    /**
+     * Export format of the results, null to print them
+     */
+    private String exportFormat = null;
+
+    /**
+     * Compress the exported results
+     */
+    private boolean gzip = false;
+
+    /**
+     * Encoding of the exported results
+     */
+    private String outputEncoding = null;
+
+    private ResultExporter exporter = null;
+
     /**
      * Action to perform if an error is found
      **/
@@ -253,6 +723,14 @@ public class SQLEx extends JDBCTask {
      */
     private boolean keepformat = false;
 
+    /**
+     * replace @name@ tokens in the script lines as well as ${name} properties
+     */
+    private boolean substituteTokens = false;
+
+    // property substitution of the script lines, created by execute
+    private volatile PropertySubstitutor substitutor = null;
+
     /**
      * Argument to Statement.setEscapeProcessing
      *
@@ -295,6 +773,23 @@ public class SQLEx extends JDBCTask {
         this.redirect = symbol;
     }
 
+    /**
+     * Set the database dialect: oracle, sqlserver, db2, mysql, postgresql, h2, generic or the class name
+     * of a {@link Dialect} implementation; optional, default oracle, sqlserver or db2 taken from the jdbc url,
+     * generic otherwise
+     */
+    public void setDialect(String dialect) {
+        this.dialectName = dialect;
+    }
+
+    /**
+     * Set the class name of the jdbc driver; required
+     */
+    public void setDriver(String driver) {
+        super.setDriver(driver);
+        this.driverName = driver;
+    }
+
 
 
     /**
@@ -389,6 +884,30 @@ public class SQLEx extends JDBCTask {
         this.output = output;
     }
 
+    /**
+     * Set the format results are exported to the output file in: "csv" or "tsv";
+     * optional, by default results are printed
+     */
+    public void setExportFormat(ExportFormat exportFormat) {
+        this.exportFormat = exportFormat.getValue();
+    }
+
+    /**
+     * Gzip compress the exported results;
+     * optional, default false
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Set the encoding of the exported results;
+     * optional, defaults to the platform encoding
+     */
+    public void setOutputEncoding(String outputEncoding) {
+        this.outputEncoding = outputEncoding;
+    }
+
     /**
      * whether output should be appended to or overwrite
      * an existing file.  Defaults to false.
@@ -417,6 +936,14 @@ public class SQLEx extends JDBCTask {
     public void setKeepformat(boolean keepformat) {
       this.keepformat = keepformat;
     }
+
+    /**
+     * Replace <code>@name@</code> tokens with the value of property name, as well as
+     * <code>${name}</code> properties; optional, default false
+     */
+    public void setSubstituteTokens(boolean substituteTokens) {
+      this.substituteTokens = substituteTokens;
+    }
     /**
      * Set escape processing for statements.
      *
@@ -431,95 +958,436 @@ public class SQLEx extends JDBCTask {
       this.allowNonDelimiterSQL = allow;
     }
 
+    /**
+     * Set the number of prepared statements kept open for reuse;
+     * optional, default 0 (no cache)
+     */
+    public void setStatementCacheSize(int size) {
+        this.statementCacheSize = size;
+    }
 
-    public void mappingInit()
-    {
-        //predefined generic tokens:
-        TokenMapping tm = new TokenMapping();
-        tm.setFrom("exec");
-        tm.setTo("call");
-
-        this.mappedTokens.addElement(tm);
-
-        tm = new TokenMapping();
-        tm.setFrom("execute");
-        tm.setTo("call");
-        this.mappedTokens.addElement(tm);
+    /**
+     * Set the size in bytes from which script files are memory mapped;
+     * optional, default 1 MB
+     */
+    public void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
     }
 
-    public void commentInit()
-    {
-      String[] commentsymbols = new String[] {"--", "REM", "//" };
-
-        for (String commentsymbol : commentsymbols) {
-            LineCommentSymbol symbol = new LineCommentSymbol();
-            symbol.setSymbol(commentsymbol);
-            this.lineCommentSymbols.addElement(symbol);
-        }
-      String[] vendorsymbols = null;
-
-      //vendor specific
-      switch (getVendor()) {
-        case ORACLE:
-            vendorsymbols = new String[] {
-                "show errors", ".", "PROMPT"};
-            redirect = "@";
-            delimiter = (delimiter == null) ? ";": delimiter;
-            break;
-          case MS_SQLSERVER:
-            vendorsymbols = new String[] {
-                "echo", "rem", "!!echo", "!! echo"};
-            redirect = "osql -i";
-            delimiter = (delimiter == null) ? "GO": delimiter;
-            break;
-          case DB2:
-            vendorsymbols = new String[] {
-                "echo", "@echo", "!echo", "! echo"};
-            redirect = "db2 -stf";
-            delimiter = (delimiter == null) ? "@": delimiter;
-            break;
-
-          case OTHER:
-            redirect = null;
-            break;
-      }
+    /**
+     * Set the size in bytes of the windows script files are mapped through;
+     * optional, default 64 MB
+     */
+    public void setMapWindowSize(int mapWindowSize) {
+        this.mapWindowSize = mapWindowSize;
+    }
 
-      if (vendorsymbols != null)
-      {
-        for (int i = 0; i < vendorsymbols.length; ++i) {
-           LineCommentSymbol symbol = new LineCommentSymbol();
-           symbol.setSymbol(vendorsymbols[i]);
-           this.lineCommentSymbols.addElement(symbol);
-        }
-      }
+    /**
+     * Set the reference to the sqlpool connections are borrowed from; optional
+     */
+    public void setPoolRef(String poolRef) {
+        this.poolRef = poolRef;
     }
 
-    public void dbInit()
-    {
-      mappingInit();
-      commentInit();
+    /**
+     * Log the statement statistics and the slowest statements at INFO level;
+     * optional, default false (VERBOSE level)
+     */
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
     }
 
+    /**
+     * Set the number of slowest statements reported;
+     * optional, default 10
+     */
+    public void setSlowest(int slowest) {
+        this.slowest = slowest;
+    }
 
-    public int getVendor() throws BuildException
-    {
-      String jdbcUrl = getUrl();
-      if (jdbcUrl == null || jdbcUrl.length() == 0)
-        throw new BuildException("jdbc url must be provided", getLocation());
+    /**
+     * Write the statement statistics as JSON to this file;
+     * optional
+     */
+    public void setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+    }
 
-      if (jdbcUrl.trim().startsWith("jdbc:oracle"))
-          return ORACLE;
-      else if (jdbcUrl.trim().startsWith("jdbc:db2"))
-          return DB2;
-      else if (jdbcUrl.trim().startsWith("jdbc:microsoft:sqlserver"))
-          return MS_SQLSERVER;
-      else
-         return OTHER;
+    /**
+     * Replay the redirect files included again from their parsed statements;
+     * optional, default true
+     */
+    public void setIncludeCache(boolean includeCache) {
+        this.includeCacheEnabled = includeCache;
+    }
 
+    /**
+     * Write the include graph of the redirect files in graphviz dot format to this file;
+     * optional
+     */
+    public void setIncludeGraph(File includeGraph) {
+        this.includeGraph = includeGraph;
     }
 
-    public void validate() throws BuildException
-    {
+    /**
+     * Parse the statements without connecting to the database;
+     * optional, default false
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Write the statements parsed in dry run mode to this file;
+     * optional
+     */
+    public void setPlanFile(File planFile) {
+        this.planFile = planFile;
+    }
+
+    /**
+     * Skip the files already applied with the same content, and record the executed ones;
+     * optional, default false
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Set the table recording the applied files in incremental mode;
+     * optional, default SQLEX_HISTORY
+     */
+    public void setTrackingTable(String trackingTable) {
+        this.trackingTable = trackingTable;
+    }
+
+    /**
+     * Parse the statements on a separate thread while the previous ones are executed;
+     * optional, default false
+     */
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Set the maximum number of statements parsed ahead of the execution in pipeline mode;
+     * optional, default 256
+     */
+    public void setPipelineSize(int pipelineSize) {
+        this.pipelineSize = pipelineSize;
+    }
+
+    /**
+     * Set the number of connections the statements of a transaction are split across;
+     * optional, default 0 (not split)
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Set the column whose value selects the shard of a single row INSERT;
+     * optional, default none (split by table)
+     */
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    /**
+     * Set the comma separated jdbc urls to execute the statements against, instead of the url of the task;
+     * optional
+     */
+    public void setFanOutUrls(String urls) {
+        this.fanOutUrls = splitList(urls);
+    }
+
+    /**
+     * Set the comma separated schemas to execute the statements in, each on its own connection; optional
+     */
+    public void setFanOutSchemas(String schemas) {
+        this.fanOutSchemas = splitList(schemas);
+    }
+
+    /**
+     * Set the maximum number of fan-out targets executed concurrently; optional, default 8
+     */
+    public void setFanOutThreads(int fanOutThreads) {
+        this.fanOutThreads = fanOutThreads;
+    }
+
+    /**
+     * Register the live counters of the task (statements, failures, rows, characters parsed, current file,
+     * commits, statement rate) as a JMX MBean; optional, default false
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * Set the file the live counters are written to in the Prometheus text format; optional
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Set the seconds between samples of the live counters; optional, default 10
+     */
+    public void setMetricsInterval(int metricsInterval) {
+        this.metricsInterval = metricsInterval;
+    }
+
+    private static List<String> splitList(String values) {
+        List<String> list = new ArrayList<String>();
+        for (String v : values.split(",")) {
+            if (v.trim().length() > 0) list.add(v.trim());
+        }
+        return list;
+    }
+
+    /**
+     * Set the number of transactions executed concurrently, each on its own connection;
+     * optional, default 1
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set the number of DML statements sent to the database in one JDBC batch;
+     * optional, default 0 (no batching)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the maximum number of consecutive single row INSERTs merged into one multi-row INSERT;
+     * optional, default 0 (no merging)
+     */
+    public void setCoalesceInserts(int coalesceInserts) {
+        this.coalesceInserts = coalesceInserts;
+    }
+
+    /**
+     * Set the maximum length, in characters, of a merged INSERT;
+     * optional, default 65536
+     */
+    public void setCoalesceSize(int coalesceSize) {
+        this.coalesceSize = coalesceSize;
+    }
+
+    /**
+     * Set the number of statements executed between two savepoints when errors are continued in a transaction;
+     * optional, default 0 (no savepoint)
+     */
+    public void setSavepointChunk(int savepointChunk) {
+        this.savepointChunk = savepointChunk;
+    }
+
+    /**
+     * Commit the transaction after this number of statements, without autocommit;
+     * optional, default 0 (at the end of the transaction only)
+     */
+    public void setCommitEvery(int commitEvery) {
+        this.commitEvery = commitEvery;
+    }
+
+    /**
+     * Commit the transaction after this number of characters of statements, without autocommit;
+     * optional, default 0 (at the end of the transaction only)
+     */
+    public void setCommitBytes(long commitBytes) {
+        this.commitBytes = commitBytes;
+    }
+
+    /**
+     * Commit the transaction when the last commit is this number of seconds old, without autocommit;
+     * optional, default 0 (at the end of the transaction only)
+     */
+    public void setCommitSeconds(int commitSeconds) {
+        this.commitSeconds = commitSeconds;
+    }
+
+    /**
+     * Save the restart point of the transactions to this file;
+     * optional
+     */
+    public void setJournal(File journal) {
+        this.journalFile = journal;
+    }
+
+    /**
+     * Resume the transactions from the restart points saved in the journal by a failed run;
+     * optional, default false
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Set the number of statements executed between two checkpoints with autocommit;
+     * optional, default 1000
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return maximum number of rows of a merged INSERT supported by the vendor, 0 if not merged
+     */
+    private int getCoalesceRows()
+    {
+      if (coalesceInserts <= 1)
+        return 0;
+
+      return Math.min(coalesceInserts, getDialect().getMaxInsertRows());
+    }
+
+
+    public void mappingInit()
+    {
+        // the task is executed again with the same mappings
+        if (predefinedMappings)
+            return;
+        predefinedMappings = true;
+
+        //predefined generic tokens, only the command word of the statement:
+        TokenMapping tm = new TokenMapping();
+        tm.setFrom("exec");
+        tm.setTo("call");
+        tm.setFirstWordOnly(true);
+
+        this.mappedTokens.addElement(tm);
+
+        tm = new TokenMapping();
+        tm.setFrom("execute");
+        tm.setTo("call");
+        tm.setFirstWordOnly(true);
+        this.mappedTokens.addElement(tm);
+    }
+
+    /**
+     * Take the comment symbols, the redirect and the default delimiter from the dialect.
+     * The comment symbols of the dialect are compiled with the nested ones by compileCommentSymbols.
+     */
+    public void commentInit()
+    {
+      CompiledDialect d = getDialect();
+      execRedirect = (redirect != null) ? redirect : d.getRedirect();
+      delimiter = (delimiter == null) ? d.getDefaultDelimiter() : delimiter;
+    }
+
+    public void dbInit()
+    {
+      dialect = resolveDialect();
+      mappingInit();
+      commentInit();
+      tokenMatcher = compileTokenMappings();
+      commentSymbols = compileCommentSymbols();
+    }
+
+    /**
+     * @return the dialect of the connection
+     */
+    public CompiledDialect getDialect() throws BuildException
+    {
+      CompiledDialect d = dialect;
+      if (d == null) {
+        // called without dbInit
+        d = resolveDialect();
+        dialect = d;
+      }
+      return d;
+    }
+
+    /**
+     * @return the dialect named by the dialect attribute, otherwise the one of the jdbc url;
+     *         looked up once per url
+     */
+    private CompiledDialect resolveDialect() throws BuildException
+    {
+      if (dialectName != null) {
+        ClassLoader loader = getLoader();
+        try {
+          return DialectRegistry.forName(dialectName, (loader != null) ? loader : getClass().getClassLoader());
+        } catch (IllegalArgumentException e) {
+          throw new BuildException(e.getMessage(), getLocation());
+        }
+      }
+
+      String jdbcUrl = getUrl();
+      if (jdbcUrl == null && !fanOutUrls.isEmpty()) {
+        // the statements are parsed once for all the targets
+        jdbcUrl = fanOutUrls.get(0);
+      }
+      if (jdbcUrl == null && pool != null && conn != null) {
+        // url of the pooled connection
+        try {
+          jdbcUrl = conn.getMetaData().getURL();
+        } catch (SQLException e) {
+          throw new BuildException(e, getLocation());
+        }
+      }
+      if ((jdbcUrl == null || jdbcUrl.length() == 0) && dryRun)
+        return DialectRegistry.forName(DialectRegistry.GENERIC.getName());
+      if (jdbcUrl == null || jdbcUrl.length() == 0)
+        throw new BuildException("jdbc url must be provided", getLocation());
+
+      return DialectRegistry.forUrl(jdbcUrl);
+    }
+
+    /**
+     * @return the vendor constant of the dialect
+     */
+    public int getVendor() throws BuildException
+    {
+      Dialect d = getDialect().getDialect();
+      if (d == DialectRegistry.ORACLE)
+        return ORACLE;
+      else if (d == DialectRegistry.DB2)
+        return DB2;
+      else if (d == DialectRegistry.SQLSERVER)
+        return MS_SQLSERVER;
+      else
+        return OTHER;
+    }
+
+    /**
+     * Open a connection, or borrow one from the pool if poolref is set.
+     */
+    protected Connection openConnection() throws BuildException
+    {
+      if (pool == null) {
+        return getConnection();
+      }
+
+      // closing the pooled connection returns it to the pool
+      try {
+        Connection c = pool.getConnection();
+        c.setAutoCommit(isAutocommit());
+        return c;
+      } catch (SQLException e) {
+        throw new BuildException(e, getLocation());
+      }
+    }
+
+    private DataSource lookupPool() throws BuildException
+    {
+      if (poolRef == null) {
+        return null;
+      }
+
+      Object ref = getProject().getReference(poolRef);
+      if (!(ref instanceof DataSource)) {
+        throw new BuildException("poolref " + poolRef + " does not refer to an executed sqlpool",
+                                 getLocation());
+      }
+      return (DataSource) ref;
+    }
+
+    public void validate() throws BuildException
+    {
       if (srcFile == null && sqlCommand.length() == 0  && filesets.isEmpty())
       {
         if (transactions.size() == 0)
@@ -530,9 +1398,35 @@ public class SQLEx extends JDBCTask {
         }
       }
 
-      if (srcFile != null && !srcFile.exists()) {
+      if (srcFile != null && !ScriptInput.exists(srcFile)) {
         throw new BuildException("Source file does not exist!", getLocation());
       }
+
+      if (exportFormat != null && output == null) {
+        throw new BuildException("output attribute must be set to export results!", getLocation());
+      }
+
+      if (isAutocommit() && (commitEvery > 0 || commitBytes > 0 || commitSeconds > 0)) {
+        log("commitevery, commitbytes and commitseconds ignored with autocommit", Project.MSG_WARN);
+      }
+
+      if (resume && journalFile == null) {
+        throw new BuildException("journal attribute must be set to resume!", getLocation());
+      }
+
+      if (journalFile != null && !SeekableLineSource.supports(encoding)) {
+        throw new BuildException("journal cannot be used with encoding " + encoding
+                                 + ", line offsets are only known when line ends are single bytes!", getLocation());
+      }
+
+      if (isFanOut() && (poolRef != null || journalFile != null || incremental || output != null || shards > 1)) {
+        throw new BuildException("fanouturls and fanoutschemas cannot be used with poolref, journal, incremental, "
+                                 + "output or shards!", getLocation());
+      }
+
+      if (coalesceInserts > 1 && getCoalesceRows() == 0) {
+        log("coalesceinserts ignored, multi-row INSERT is not supported by the database", Project.MSG_WARN);
+      }
     }
 
     /**
@@ -540,14 +1434,22 @@ public class SQLEx extends JDBCTask {
      */
     public void execute() throws BuildException {
 
-
-        dbInit();
-
         Vector savedTransaction = (Vector) transactions.clone();
         String savedSqlCommand = sqlCommand;
         sqlCommand = sqlCommand.trim();
 
         try {
+            stats = new StatementStats(slowest);
+            includeCache = new IncludeCache();
+            substitutor = createSubstitutor();
+            metrics = startMetrics();
+            pool = dryRun ? null : lookupPool();
+            if (pool != null) {
+                // borrow first, the vendor is taken from the pooled connection
+                conn = openConnection();
+            }
+
+            dbInit();
 
             validate();
 
@@ -563,6 +1465,7 @@ public class SQLEx extends JDBCTask {
                 for (int j = 0; j < srcFiles.length; j++) {
                     Transaction t = createTransaction();
                     t.setSrc(new File(srcDir, srcFiles[j]));
+                    t.setDefaultName(srcFiles[j]);
                 }
             }
 
@@ -570,16 +1473,45 @@ public class SQLEx extends JDBCTask {
             Transaction t = createTransaction();
             t.setSrc(srcFile);
             t.addText(sqlCommand);
-            conn = getConnection();
+            TaskGraph<Transaction> graph = createTransactionGraph();
+
+            if (dryRun) {
+                runDryRun(graph);
+                return;
+            }
+            if (isFanOut()) {
+                runFanOut(graph);
+                return;
+            }
+
+            if (conn == null) {
+                conn = openConnection();
+            }
             if (!isValidRdbms(conn)) {
                 return;
             }
 
+            mainSession = new Session(conn);
+            Session[] sessions = new Session[] {mainSession};
+
             try {
                 PrintStream out = System.out;
 
+                if (incremental) {
+                    loadHistory();
+                }
+                if (journalFile != null) {
+                    journal = openJournal();
+                }
+
                 try {
-                    if (output != null) {
+                    if (exportFormat != null) {
+                        log("Exporting results as " + exportFormat + " to " + output,  Project.MSG_VERBOSE);
+                        exporter = new ResultExporter(output, append, gzip,
+                                                      ExportFormat.TSV.equals(exportFormat) ? '\t' : ',',
+                                                      outputEncoding);
+                    }
+                    else if (output != null) {
                         log("Opening PrintStream to output file " + output,  Project.MSG_VERBOSE);
                         out = new PrintStream(
                                   new BufferedOutputStream(
@@ -588,92 +1520,769 @@ public class SQLEx extends JDBCTask {
                                                            append)));
                     }
 
-                    // Process all transactions
-                    for (Enumeration e = transactions.elements();
-                         e.hasMoreElements();) {
-
-                        ((Transaction) e.nextElement()).runTransaction(out);
-                        if (!isAutocommit()) {
-                            log("Committing transaction", Project.MSG_VERBOSE);
-                            conn.commit();
+                    if (parallelism > 1 && transactions.size() > 1) {
+                        sessions = openSessions(mainSession, Math.min(parallelism, transactions.size()));
+                        runParallel(graph, sessions, out);
+                    } else {
+                        // Process all transactions
+                        for (Transaction tx : graph.getSerialOrder()) {
+                            runTransaction(tx, mainSession, out);
                         }
                     }
+                    if (journal != null) {
+                        journal.delete();
+                    }
                 } finally {
                     if (out != null && out != System.out) {
                         out.close();
                     }
+                    if (exporter != null) {
+                        exporter.close();
+                        log(exporter.getStatistics());
+                        exporter = null;
+                    }
                 }
 
             } catch (IOException e) {
                 if (!isAutocommit() && conn != null && onError.equals("abort")) {
-                    try {
-                        conn.rollback();
-                    } catch (SQLException ex) {
-                        // ignore
-                    }
+                    mainSession.rollback();
                 }
                 throw new BuildException(e, getLocation());
             } catch (SQLException e) {
                 if (!isAutocommit() && conn != null && onError.equals("abort")) {
-                    try {
-                        conn.rollback();
-                    } catch (SQLException ex) {
-                        // ignore
-                    }
+                    mainSession.rollback();
                 }
                 throw new BuildException(e, getLocation());
             } finally {
-                try {
-                    if (cstatement != null && !keepStatementOpen) {
-                        cstatement.close();
-                    }
-                    if (conn != null && !keepConnectionOpen) {
-                        conn.close();
+                for (int i = 1; i < sessions.length; i++) {
+                    if (sessions[i] != null) {
+                        sessions[i].close(true);
                     }
-                } catch (SQLException ex) {
-                    // ignore
                 }
+                mainSession.close(!keepConnectionOpen);
             }
 
             log(goodSql + " of " + totalSql
                 + " SQL statements executed successfully");
+            if (incremental) {
+                log(skippedScripts + " files skipped, already applied");
+            }
+            logStatistics();
+            logIncludes();
+            log(rowsAffected + " rows affected", Project.MSG_VERBOSE);
         } finally {
             transactions = savedTransaction;
             sqlCommand = savedSqlCommand;
+            // the session closes the connection, unless it was never created
             try {
-              if (conn != null && !keepConnectionOpen)
+              if (mainSession == null && conn != null && !keepConnectionOpen)
                 conn.close();
             }
             catch (SQLException ignore) {}
+            stopMetrics();
+            mainSession = null;
+            pool = null;
+            stats = null;
+            includeCache = null;
+            substitutor = null;
+            journal = null;
+            history = null;
+            appliedScripts = null;
+            skippedScripts.set(0);
         }
     }
 
-    private boolean isStartWithCommentSymbol(String line)
+    /**
+     * Load the restart points when resuming, otherwise start a new journal.
+     */
+    private CheckpointJournal openJournal() throws IOException
     {
-      if (line == null || "".equals(line))
-        return false;
-
-      line = line.trim();
-
-      for ( LineCommentSymbol s: lineCommentSymbols )
-      {
-        if (!s.getCaseSensitive())
-        {
-          if (line.toUpperCase().startsWith(s.getSymbol().toUpperCase()))
-            return true;
+        CheckpointJournal j = new CheckpointJournal(journalFile);
+        if (!resume) {
+            j.delete();
+        } else if (j.load()) {
+            log("Resuming from checkpoint journal " + journalFile, Project.MSG_INFO);
+        } else {
+            log("No checkpoint journal " + journalFile + ", running from the start", Project.MSG_INFO);
         }
-        else {
-          if (line.startsWith(s.getSymbol()))
-            return true;
+        return j;
+    }
+
+    /**
+     * Name the transactions and resolve their dependencies.
+     */
+    private TaskGraph<Transaction> createTransactionGraph() throws BuildException
+    {
+        TaskGraph<Transaction> graph = new TaskGraph<Transaction>();
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction t = (Transaction) transactions.elementAt(i);
+            String name = t.getName();
+            if (name == null || (t.tName == null && names.contains(name))) {
+                name = "transaction-" + (i + 1);
+                t.setDefaultName(name);
+            }
+            names.add(name);
         }
-      }
 
-      return false;
+        try {
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction t = (Transaction) transactions.elementAt(i);
+                graph.add(t.getName(), t, t.getEstimatedSize(), t.tDependsOn);
+            }
+            graph.getSerialOrder(); // check for unknown and cyclic dependencies
+        } catch (IllegalArgumentException e) {
+            throw new BuildException(e.getMessage(), getLocation());
+        }
+        return graph;
     }
 
-    private boolean isCallable(String sql)
+    /**
+     * Run one transaction on the given session and commit it.
+     */
+    private void runTransaction(Transaction t, Session session, PrintStream out)
+        throws IOException, SQLException
     {
-      sql = sql.trim();
+        t.setSession(session);
+
+        if (journal != null) {
+            if (journal.isDone(t.getName())) {
+                log("Skipping transaction " + t.getName() + ", committed before", Project.MSG_INFO);
+                return;
+            }
+            t.tResume = journal.getFrames(t.getName());
+            t.tCommits = session.getCommits();
+        }
+
+        String path = null;
+        String checksum = null;
+        if (history != null && t.tSrcFile != null) {
+            path = t.getHistoryPath();
+            checksum = ScriptHistory.checksum(t.tSrcFile, t.tSqlCommand);
+            if (checksum.equals(appliedScripts.get(path))) {
+                log("Skipping " + path + ", already applied", Project.MSG_INFO);
+                skippedScripts.incrementAndGet();
+                return;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        int failures = session.getFailures();
+        try {
+            t.runTransaction(out);
+            if (checksum != null) {
+                // run the pending batch first, its failures count
+                session.executeBatch(out);
+                history.record(session.getConnection(), path, checksum,
+                               System.currentTimeMillis() - start, session.getFailures() == failures);
+            }
+        } catch (IOException e) {
+            recordFailure(session, path, checksum, start);
+            throw e;
+        } catch (SQLException e) {
+            recordFailure(session, path, checksum, start);
+            throw e;
+        }
+
+        if (!isAutocommit()) {
+            session.commit(out);
+        } else {
+            session.executeBatch(out);
+        }
+        if (journal != null) {
+            journal.done(t.getName());
+        }
+    }
+
+    /**
+     * @return the property substitution of the script lines, values cached for the task execution
+     */
+    private PropertySubstitutor getSubstitutor()
+    {
+      PropertySubstitutor ps = substitutor;
+      if (ps == null) {
+        // runStatements called without execute
+        ps = createSubstitutor();
+        substitutor = ps;
+      }
+      return ps;
+    }
+
+    /**
+     * @return the live counters, sampled and published, or null if neither jmx nor metricsfile is set
+     */
+    private ExecutionMetrics startMetrics()
+    {
+      if (!jmx && metricsFile == null) return null;
+      if (metricsInterval < 1) {
+        throw new BuildException("metricsinterval must be at least 1 second", getLocation());
+      }
+
+      String name = getTaskName();
+      if (getLocation() != null && getLocation().getFileName() != null) {
+        name = name + " " + getLocation().getFileName() + ":" + getLocation().getLineNumber();
+      }
+      ExecutionMetrics m = new ExecutionMetrics(name, new ExecutionMetrics.Counters() {
+        public long getStatements() {
+          return totalSql.get();
+        }
+        public long getSucceeded() {
+          return goodSql.get();
+        }
+        public long getRows() {
+          return rowsAffected.get();
+        }
+        public long getCommits() {
+          StatementStats s = stats;
+          return (s == null) ? 0 : s.getCommits();
+        }
+      });
+      if (jmx) {
+        try {
+          m.register();
+        } catch (javax.management.JMException e) {
+          log("Cannot register the metrics MBean: " + e, Project.MSG_WARN);
+        }
+      }
+      m.start(metricsFile, metricsInterval);
+      return m;
+    }
+
+    private void stopMetrics()
+    {
+      ExecutionMetrics m = metrics;
+      if (m == null) return;
+      m.stop();
+      if (m.getWriteError() != null) {
+        log("Cannot write the metrics file: " + m.getWriteError().getMessage(), Project.MSG_WARN);
+      }
+      metrics = null;
+    }
+
+    private PropertySubstitutor createSubstitutor()
+    {
+      return new PropertySubstitutor(new PropertySubstitutor.Resolver() {
+        public String getProperty(String name) {
+          return getProject().getProperty(name);
+        }
+      }, substituteTokens);
+    }
+
+    /**
+     * Log the statement timing summary and the slowest statements, and write the report file.
+     */
+    private void logStatistics()
+    {
+        int level = statistics ? Project.MSG_INFO : Project.MSG_VERBOSE;
+        log("Statistics: " + stats.getSummary(), level);
+
+        if (substitutor != null && substitutor.getLines() > 0) {
+            log("Property substitution: " + substitutor.getSummary(), level);
+        }
+
+        List<StatementStats.Entry> list = stats.getSlowest();
+        if (!list.isEmpty()) {
+            log("Slowest statements:", level);
+        }
+        for (StatementStats.Entry e : list) {
+            String sql = e.getSql().replace('\n', ' ');
+            if (sql.length() > 100) sql = sql.substring(0, 100) + "...";
+            log("  " + StatementStats.millis(e.getNanos()) + " ms  " + e.getLocation() + "  "
+                + (e.isFailed() ? "(failed) " : "") + sql, level);
+        }
+
+        if (reportFile != null) {
+            try {
+                String location = getLocation().toString().trim();
+                if (location.endsWith(":")) location = location.substring(0, location.length() - 1);
+                stats.writeReport(reportFile, getTaskName() + " " + location);
+                log("Statistics written to " + reportFile, Project.MSG_VERBOSE);
+            } catch (IOException e) {
+                throw new BuildException(e, getLocation());
+            }
+        }
+    }
+
+    /**
+     * Log the include graph and cache statistics, and write the include graph file.
+     */
+    private void logIncludes()
+    {
+        if (includeCache.getIncludeCount() > 0) {
+            log("Includes: " + includeCache.getStatistics(), Project.MSG_VERBOSE);
+            log(includeCache.getGraph().trim(), Project.MSG_VERBOSE);
+        }
+
+        if (includeGraph != null) {
+            try {
+                includeCache.writeGraph(includeGraph);
+                log("Include graph written to " + includeGraph, Project.MSG_VERBOSE);
+            } catch (IOException e) {
+                throw new BuildException(e, getLocation());
+            }
+        }
+    }
+
+    /**
+     * Create the tracking table if needed and read the files already applied.
+     */
+    private void loadHistory() throws SQLException
+    {
+        history = new ScriptHistory(trackingTable);
+        if (history.ensureTable(conn, getHistoryTableSql())) {
+            log("Created tracking table " + trackingTable, Project.MSG_INFO);
+        }
+        appliedScripts = history.loadApplied(conn);
+        log(appliedScripts.size() + " files applied according to " + trackingTable, Project.MSG_VERBOSE);
+    }
+
+    /**
+     * @return create table statement of the tracking table for the database vendor
+     */
+    protected String getHistoryTableSql()
+    {
+      CompiledDialect d = getDialect();
+      String varchar = d.getTypeName(Types.VARCHAR);
+      String number = d.getTypeName(Types.BIGINT);
+      String flag = d.getTypeName(Types.SMALLINT);
+      String timestamp = d.getTypeName(Types.TIMESTAMP);
+
+      return "CREATE TABLE " + trackingTable + " ("
+             + "PATH_KEY " + varchar + "(64) NOT NULL PRIMARY KEY, "
+             + "SCRIPT_PATH " + varchar + "(1000) NOT NULL, "
+             + "CHECKSUM " + varchar + "(64) NOT NULL, "
+             + "APPLIED_AT " + timestamp + " NOT NULL, "
+             + "DURATION_MS " + number + " NOT NULL, "
+             + "SUCCESS " + flag + " NOT NULL)";
+    }
+
+    // only recorded in autocommit mode, otherwise the record would be rolled back with the transaction
+    private void recordFailure(Session session, String path, String checksum, long start)
+    {
+        if (checksum == null || !isAutocommit()) {
+            return;
+        }
+        try {
+            history.record(session.getConnection(), path, checksum,
+                           System.currentTimeMillis() - start, false);
+        } catch (SQLException e) {
+            log("Could not record " + path + " in " + trackingTable + ": " + e.getMessage(), Project.MSG_WARN);
+        }
+    }
+
+    /**
+     * Open the sessions of the parallel workers or shards, the first one being the given session.
+     * With a pool, only as many connections as the pool can give are used.
+     */
+    private Session[] openSessions(Session first, int count)
+    {
+        List<Session> sessions = new ArrayList<Session>();
+        sessions.add(first);
+        for (int i = 1; i < count; i++) {
+            try {
+                sessions.add(new Session(openConnection()));
+            } catch (BuildException e) {
+                if (pool == null) {
+                    for (Session s : sessions.subList(1, sessions.size())) {
+                        s.close(true);
+                    }
+                    throw e;
+                }
+                log("Using " + sessions.size() + " pooled connections: " + e.getMessage(),
+                    Project.MSG_VERBOSE);
+                break;
+            }
+        }
+        return sessions.toArray(new Session[sessions.size()]);
+    }
+
+    /**
+     * Run the transactions concurrently, one connection per worker.
+     */
+    private void runParallel(TaskGraph<Transaction> graph, final Session[] sessions, final PrintStream out)
+        throws IOException, SQLException
+    {
+        log("Executing " + transactions.size() + " transactions on "
+            + sessions.length + " connections", Project.MSG_VERBOSE);
+        try {
+            graph.execute(sessions.length, new TaskGraph.Worker<Transaction>() {
+                public void run(Transaction t, int worker) throws Exception {
+                    try {
+                        runTransaction(t, sessions[worker], out);
+                    } catch (Exception e) {
+                        log("Transaction " + t.getName() + " failed: " + e, Project.MSG_ERR);
+                        if (!isAutocommit() && onError.equals("abort")) {
+                            sessions[worker].rollback();
+                        }
+                        throw e;
+                    }
+                }
+            }, !onError.equals("continue"));
+        } catch (IOException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BuildException(e, getLocation());
+        } finally {
+            for (Transaction t : graph.getSkipped()) {
+                log("Skipped transaction " + t.getName()
+                    + ", a transaction it depends on failed", Project.MSG_ERR);
+            }
+        }
+    }
+
+    /**
+     * Parse the transactions on a thread pool, without connection, and report the statement plan.
+     */
+    private void runDryRun(TaskGraph<Transaction> graph)
+    {
+        StatementPlan plan;
+        try {
+            // preview of a resumed run, the journal is only read
+            if (resume) {
+                journal = openJournal();
+            }
+            plan = parse(graph.getSerialOrder());
+        } catch (IOException e) {
+            throw new BuildException(e, getLocation());
+        } finally {
+            journal = null;
+        }
+
+        log("Plan: " + plan.getSummary());
+        logIncludes();
+        if (planFile != null) {
+            try {
+                plan.write(planFile, outputEncoding);
+                log("Plan written to " + planFile);
+            } catch (IOException e) {
+                throw new BuildException(e, getLocation());
+            }
+        }
+    }
+
+    /**
+     * Parse the transactions on a thread pool into a statement plan, one part per transaction in order.
+     */
+    private StatementPlan parse(List<Transaction> order)
+    {
+        StatementPlan plan = new StatementPlan();
+        int threads = (parallelism > 1) ? parallelism : Runtime.getRuntime().availableProcessors();
+        threads = Math.max(1, Math.min(threads, order.size()));
+        log("Parsing " + order.size() + " transactions on " + threads + " threads", Project.MSG_VERBOSE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (final Transaction t : order) {
+                t.tPlan = plan.addPart(t.getName());
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        if (journal != null) {
+                            if (journal.isDone(t.getName())) {
+                                log("Skipping transaction " + t.getName() + ", committed before", Project.MSG_INFO);
+                                return null;
+                            }
+                            t.tResume = journal.getFrames(t.getName());
+                        }
+                        t.runSources(System.out);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : results) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BuildException) throw (BuildException) cause;
+            throw new BuildException(cause, getLocation());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("parsing interrupted", getLocation());
+        } finally {
+            executor.shutdownNow();
+            // the transactions are executed again by the next execution of the task
+            for (Transaction t : order) {
+                t.tPlan = null;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return true if the statements are executed against fan-out targets
+     */
+    private boolean isFanOut()
+    {
+        return !fanOutUrls.isEmpty() || !fanOutSchemas.isEmpty();
+    }
+
+    /**
+     * Parse the transactions once, then execute their statements against every fan-out target concurrently,
+     * each target on its own connection. onError applies to each target on its own; the task fails at the end
+     * if a target did not run to the end.
+     */
+    private void runFanOut(TaskGraph<Transaction> graph)
+    {
+        final List<Transaction> order = graph.getSerialOrder();
+        final List<StatementPlan.Part> parts = parse(order).getParts();
+
+        FanOutMatrix matrix = new FanOutMatrix();
+        List<String> urls = fanOutUrls.isEmpty() ? Collections.singletonList(getUrl()) : fanOutUrls;
+        List<String> schemas = fanOutSchemas.isEmpty() ? Collections.<String>singletonList(null) : fanOutSchemas;
+        for (String url : urls) {
+            for (String schema : schemas) {
+                String name = (schema == null) ? url : (fanOutUrls.isEmpty() ? schema : url + " " + schema);
+                matrix.add(url, schema, name);
+            }
+        }
+
+        int targets = matrix.getTargets().size();
+        int threads = Math.max(1, Math.min(fanOutThreads, targets));
+        final Driver driver = loadDriver();
+        ExecutorService executor = newFanOutExecutor(threads);
+        log("Executing on " + targets + " targets, " + threads + " at a time");
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (final FanOutMatrix.Target target : matrix.getTargets()) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        runTarget(driver, target, order, parts);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : results) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BuildException) throw (BuildException) cause;
+            throw new BuildException(cause, getLocation());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("fan-out interrupted", getLocation());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log(goodSql + " of " + totalSql + " SQL statements executed successfully");
+        log("Fan-out results:\n" + matrix.format());
+        logStatistics();
+        logIncludes();
+
+        List<FanOutMatrix.Target> failed = matrix.getFailed();
+        if (!failed.isEmpty()) {
+            throw new BuildException("failed on " + failed.size() + " of " + targets + " targets", getLocation());
+        }
+    }
+
+    /**
+     * Execute the parsed statements against one target, committing after each transaction.
+     */
+    private void runTarget(Driver driver, FanOutMatrix.Target target, List<Transaction> order,
+                           List<StatementPlan.Part> parts)
+    {
+        long start = System.nanoTime();
+        String failure = null;
+        Session session = null;
+        PrintStream out = System.out;
+        try {
+            session = new Session(openTargetConnection(driver, target.getUrl()));
+            session.setTargetStats(target.getStats());
+            if (target.getSchema() != null) {
+                useSchema(session, target);
+            }
+
+            for (int i = 0; i < order.size(); i++) {
+                Transaction t = order.get(i);
+                StatementPlan.Part part = parts.get(i);
+                for (int j = 0; j < part.size(); j++) {
+                    t.executeStatement(session, part.getSource(j), part.getSql(j), part.getLine(j), out);
+                }
+                if (!isAutocommit()) {
+                    session.commit(out);
+                } else {
+                    session.executeBatch(out);
+                }
+            }
+        } catch (SQLException e) {
+            failure = e.toString();
+        } catch (BuildException e) {
+            failure = e.getMessage();
+        } catch (RuntimeException e) {
+            failure = e.toString();
+        } finally {
+            if (failure != null) {
+                log("Target " + target.getName() + " failed: " + failure, Project.MSG_ERR);
+                if (session != null && !isAutocommit() && onError.equals("abort")) {
+                    session.rollback();
+                }
+            }
+            if (session != null) {
+                session.close(true);
+            }
+            target.finished(System.nanoTime() - start, failure);
+        }
+    }
+
+    /**
+     * Load the jdbc driver for the fan-out targets, through the class loader JDBCTask cached for it if any.
+     */
+    private Driver loadDriver() throws BuildException
+    {
+        if (driverName == null) {
+            throw new BuildException("Driver attribute must be set!", getLocation());
+        }
+        if (getUserId() == null) {
+            throw new BuildException("User Id attribute must be set!", getLocation());
+        }
+        if (getPassword() == null) {
+            throw new BuildException("Password attribute must be set!", getLocation());
+        }
+
+        try {
+            Class<?> dc;
+            if (getClasspath() != null) {
+                Object cached = getLoaderMap().get(driverName);
+                ClassLoader loader = (cached instanceof ClassLoader) ? (ClassLoader) cached
+                                                                     : getProject().createClassLoader(getClasspath());
+                dc = loader.loadClass(driverName);
+            } else {
+                dc = Class.forName(driverName);
+            }
+            return (Driver) dc.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new BuildException("Class Not Found: JDBC driver " + driverName + " could not be loaded",
+                                     getLocation());
+        } catch (Exception e) {
+            throw new BuildException("cannot create JDBC driver " + driverName + ": " + e, e, getLocation());
+        }
+    }
+
+    /**
+     * Open a connection to the url of a fan-out target, as JDBCTask connects to the url of the task.
+     * The task is not changed, so the targets connect concurrently.
+     */
+    private Connection openTargetConnection(Driver driver, String url) throws BuildException
+    {
+        log("connecting to " + url, Project.MSG_VERBOSE);
+        Properties info = new Properties();
+        info.setProperty("user", getUserId());
+        info.setProperty("password", getPassword());
+        try {
+            Connection c = driver.connect(url, info);
+            if (c == null) {
+                throw new SQLException("No suitable Driver for " + url);
+            }
+            c.setAutoCommit(isAutocommit());
+            return c;
+        } catch (SQLException e) {
+            throw new BuildException(e, getLocation());
+        }
+    }
+
+    /**
+     * Make the schema of the target current, with the schema statement of the dialect of its url.
+     */
+    private void useSchema(Session session, FanOutMatrix.Target target) throws SQLException
+    {
+        // the targets may be databases of different vendors
+        CompiledDialect d = (dialectName != null) ? getDialect() : DialectRegistry.forUrl(target.getUrl());
+        String sql = d.getSchemaSql(target.getSchema());
+        log("SQL: " + sql, Project.MSG_VERBOSE);
+        Statement st = session.getConnection().createStatement();
+        try {
+            st.execute(sql);
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * @return a pool of virtual threads on JVMs which have them, otherwise of platform threads
+     */
+    private ExecutorService newFanOutExecutor(int threads)
+    {
+        try {
+            // Thread.ofVirtual().factory(), compiled for JVMs without virtual threads
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                                                         .getMethod("factory").invoke(builder);
+            log("Using virtual threads", Project.MSG_VERBOSE);
+            return Executors.newFixedThreadPool(threads, factory);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * @return true if the line starts, from start on, with one of the line comment symbols
+     */
+    protected boolean isStartWithCommentSymbol(CharSequence line, int start)
+    {
+      if (line == null || start >= line.length())
+        return false;
+
+      CommentSymbolTrie trie = commentSymbols;
+      if (trie == null)
+      {
+        // called without dbInit
+        trie = compileCommentSymbols();
+        commentSymbols = trie;
+      }
+
+      return trie.matches(line, start);
+    }
+
+    /**
+     * Compile the line comment symbols into a single trie.
+     */
+    protected CommentSymbolTrie compileCommentSymbols()
+    {
+      // the precompiled symbols of the dialect, unless there are nested ones
+      if (lineCommentSymbols.isEmpty())
+        return getDialect().getCommentSymbols();
+
+      CommentSymbolTrie trie = new CommentSymbolTrie();
+      getDialect().addCommentSymbols(trie);
+      for ( LineCommentSymbol s: lineCommentSymbols )
+      {
+        trie.add(s.getSymbol(), s.getCaseSensitive());
+      }
+      return trie;
+    }
+
+    private static int skipWhiteSpaces(CharSequence line)
+    {
+      int i = 0;
+      while (i < line.length() && line.charAt(i) <= ' ')
+        i++;
+      return i;
+    }
+
+    private static boolean regionMatches(CharSequence line, int start, String value, boolean ignoreCase)
+    {
+      if (value == null || value.length() == 0 || start + value.length() > line.length())
+        return false;
+
+      for (int i = 0; i < value.length(); i++)
+      {
+        char a = line.charAt(start + i);
+        char b = value.charAt(i);
+        if (a != b && !(ignoreCase && Character.toUpperCase(a) == Character.toUpperCase(b)))
+          return false;
+      }
+      return true;
+    }
+
+    private boolean isCallable(String sql)
+    {
+      sql = sql.trim();
       boolean callable = sql.toLowerCase().startsWith("call ");
       if (callable) return callable;
 
@@ -682,254 +2291,810 @@ public class SQLEx extends JDBCTask {
         return sql.substring(1).startsWith("call ");
       }
 
-      return false;
+      return false;
+
+    }
+
+    /**
+     * Compile the token mappings into a single matcher.
+     */
+    protected TokenMatcher compileTokenMappings()
+    {
+      List<TokenMatcher.Rule> rules = new ArrayList<TokenMatcher.Rule>();
+      for (Iterator it=mappedTokens.iterator(); it.hasNext(); )
+      {
+        TokenMapping tm = (TokenMapping) it.next();
+        rules.add(new TokenMatcher.Rule(tm.getFrom(), tm.getTo(), tm.getCaseSensitive(),
+                                        tm.getMatchWholeWord(), tm.getFirstWordOnly()));
+      }
+      return new TokenMatcher(rules);
+    }
+
+    private String covert(String sql )
+    {
+      if (sql == null || "".equals(sql))
+        return sql;
+
+      TokenMatcher matcher = tokenMatcher;
+      if (matcher == null)
+      {
+        // parseSQL called without dbInit
+        matcher = compileTokenMappings();
+        tokenMatcher = matcher;
+      }
+
+      return matcher.rewrite(sql.trim());
+    }
+
+
+    public String parseSQL(String sql)
+    {
+      // convert only first token to proper syntax, such EXEC to call
+      sql = covert(sql);
+      if (isCallable(sql))
+      {
+        StringBuffer sb = new StringBuffer("{");
+        sb.append(sql).append(" }");
+
+        sql = sb.toString();
+      }
+
+      return sql;
+    }
+
+
+
+    /**
+     * Exec the sql statement on the task connection.
+     */
+    protected void execSQL(String sql, List args, PrintStream out) throws SQLException
+    {
+        mainSession.execSQL(sql, args, out);
+    }
+
+
+    /**
+     * print any results in the statement
+     * @deprecated use {@link #printResults(java.sql.ResultSet, java.io.PrintStream)
+     *             the two arg version} instead.
+     * @param out the place to print results
+     * @throws SQLException on SQL problems.
+     */
+    protected void printResults(PrintStream out) throws SQLException {
+        ResultSet rs = null;
+        rs = cstatement.getResultSet();
+        try {
+            printResults(rs, out);
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+        }
+    }
+
+    /**
+     * print any results in the result set.
+     * @param rs the resultset to print information about
+     * @param out the place to print results
+     * @throws SQLException on SQL problems.
+     * @since Ant 1.6.3
+     */
+    protected void printResults(ResultSet rs, PrintStream out) throws SQLException {
+        if (rs != null) {
+            log("Processing new result set.", Project.MSG_VERBOSE);
+            ResultSetMetaData md = rs.getMetaData();
+            int columnCount = md.getColumnCount();
+            StringBuffer line = new StringBuffer();
+            if (showheaders) {
+                for (int col = 1; col < columnCount; col++) {
+                     line.append(md.getColumnName(col));
+                     line.append(",");
+                }
+                line.append(md.getColumnName(columnCount));
+                out.println(line);
+                line = new StringBuffer();
+            }
+            while (rs.next()) {
+                boolean first = true;
+                for (int col = 1; col <= columnCount; col++) {
+                    String columnValue = rs.getString(col);
+                    if (columnValue != null) {
+                        columnValue = columnValue.trim();
+                    }
+
+                    if (first) {
+                        first = false;
+                    } else {
+                        line.append(",");
+                    }
+                    line.append(columnValue);
+                }
+                out.println(line);
+                line = new StringBuffer();
+            }
+        }
+        out.println();
+    }
+
+
+    /**
+     * export the rows of the result set to the output file.
+     * @param rs the resultset to export
+     * @throws SQLException on SQL problems.
+     */
+    protected void exportResults(ResultSet rs) throws SQLException {
+        if (rs == null) {
+            return;
+        }
+        log("Exporting new result set.", Project.MSG_VERBOSE);
+        // one result set at a time, sessions may run in parallel
+        synchronized (exporter) {
+            try {
+                exporter.export(rs, showheaders);
+            } catch (IOException e) {
+                throw new BuildException(e, getLocation());
+            }
+        }
+    }
+
+    /**
+     * The action a task should perform on an error,
+     * one of "continue", "stop" and "abort"
+     */
+    public static class OnError extends EnumeratedAttribute {
+        public String[] getValues() {
+            return new String[] {"continue", "stop", "abort"};
+        }
+    }
+
+
+
+    /**
+     * A database connection and the statements opened on it.
+     * Transactions running in parallel use a session each.
+     */
+    protected class Session {
+
+        private final Connection connection;
+
+        private CallableStatement statement = null;
+
+        /**
+         * statement used for the JDBC batch, and the sql queued in it with the source and line of each statement
+         */
+        private Statement batchStatement = null;
+        private List<String> batchedSql = new ArrayList<String>();
+        private List<String> batchSources = new ArrayList<String>();
+        private List<Integer> batchLines = new ArrayList<Integer>();
+
+        private StatementCache statementCache = null;
+
+        /**
+         * single row INSERTs waiting to be merged, null if not merged
+         */
+        private InsertCoalescer inserts = null;
+        private Boolean supportsSavepoints = null;
+
+        /**
+         * savepoint of the current chunk, and the statements executed since, replayed after
+         * rolling back to it
+         */
+        private Savepoint chunkSavepoint = null;
+        private List<String> chunkSql = new ArrayList<String>();
+        private List<List<?>> chunkArgs = new ArrayList<List<?>>();
+
+        // statements which failed on this session
+        private int failures = 0;
+
+        // statistics of the fan-out target of this session, as well as the task statistics
+        private StatementStats targetStats = null;
+
+        /**
+         * commits on this session, and the statements and characters executed since the last one
+         */
+        private int  commits = 0;
+        private int  uncommittedCount = 0;
+        private long uncommittedChars = 0;
+        private long lastCommit = System.nanoTime();
+
+        public Session(Connection connection)
+        {
+            this.connection = connection;
+            if (statementCacheSize > 0 && !keepStatementOpen) {
+                statementCache = new StatementCache(connection, statementCacheSize);
+            }
+            int rows = getCoalesceRows();
+            if (rows > 1) {
+                inserts = new InsertCoalescer(rows, coalesceSize);
+            }
+        }
+
+        public Connection getConnection()
+        {
+            return connection;
+        }
+
+        void setTargetStats(StatementStats targetStats)
+        {
+            this.targetStats = targetStats;
+        }
+
+        private void record(String source, int line, String sql, long nanos, long rows, boolean failed)
+        {
+            if (stats != null) {
+                stats.record(source, line, sql, nanos, rows, failed);
+            }
+            if (targetStats != null) {
+                targetStats.record(source, line, sql, nanos, rows, failed);
+            }
+        }
+
+        /**
+         * @return number of statement or batch failures on this session
+         */
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * Exec the sql statement.
+         */
+        void execSQL(String sql, List<?> args, PrintStream out) throws SQLException
+        {
+            execSQL(sql, args, out, null, 0);
+        }
+
+        /**
+         * Exec the sql statement, timing it.
+         *
+         * @param source     file (or transaction) the statement comes from
+         * @param sourceLine line the statement starts on
+         */
+        void execSQL(String sql, List<?> args, PrintStream out, String source, int sourceLine) throws SQLException
+        {
+            // trim space, strored procedurs is very sensitive to front white space
+            sql = sql.trim();
+            // Check and ignore empty statements
+            if ("".equals(sql)) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            int rows = 0;
+            boolean failed = true;
+
+            ResultSet resultSet = null;
+            try {
+
+                totalSql.incrementAndGet();
+                log("SQL: " + sql, Project.MSG_VERBOSE);
+                startChunk();
+
+
+                statement = (statementCache != null) ? statementCache.prepareCall(sql)
+                                                     : connection.prepareCall(sql);
+                if (this == mainSession) {
+                    // keep the protected statement current for sub-classes
+                    cstatement = statement;
+                }
+
+                if (args != null && !args.isEmpty()) {
+                    ListIterator<?> it = args.listIterator();
+                    while (it.hasNext()) {
+                        int index = it.nextIndex();
+                        statement.setObject(index + 1, it.next());
+                    }
+                }
+
+                int updateCount = 0, updateCountTotal = 0;
+                int returncode = statement.executeUpdate();
+                updateCount = statement.getUpdateCount();
+                resultSet = statement.getResultSet();
+
+                boolean ret = (resultSet != null);
+                do {
+                  if (!ret) {
+                    if (updateCount != -1) {
+                      updateCountTotal += updateCount;
+                    }
+                  } else {
+                    if (exporter != null) {
+                      exportResults(resultSet);
+                    } else if (print) {
+                      printResults(resultSet, out);
+                    }
+                  }
+                  ret = statement.getMoreResults();
+                  if (ret) {
+                    updateCount = statement.getUpdateCount();
+                    resultSet = statement.getResultSet();
+                  }
+                } while (ret);
+
+                log(updateCountTotal + " rows affected", Project.MSG_VERBOSE);
+                rowsAffected.addAndGet(updateCountTotal);
+                rows = updateCountTotal;
+
+                if (print && exporter == null) {
+                    StringBuffer line = new StringBuffer();
+                    line.append(updateCountTotal).append(" rows affected");
+                    out.println(line);
+                }
+
+                SQLWarning warning = connection.getWarnings();
+                while (warning != null) {
+                    log(warning + " sql warning", Project.MSG_VERBOSE);
+                    warning = warning.getNextWarning();
+                }
+
+                connection.clearWarnings();
+                goodSql.incrementAndGet();
+                failed = false;
+                endStatement(sql, args);
+
+            } catch (SQLException e) {
+
+              log("Failed to execute: " + sql, Project.MSG_ERR);
+              failures++;
 
-    }
+              e.printStackTrace();
 
-    private String covert(String sql )
-    {
-      if (sql == null || "".equals(sql))
-        return sql;
+              if (statementCache != null) {
+                statementCache.invalidate(sql);
+              }
 
-      sql = sql.trim();
+              if (!onError.equals("continue")) {
+                throw e;
+              }
 
-      for (Iterator it=mappedTokens.iterator(); it.hasNext(); )
-      {
+              log(e.toString(), Project.MSG_ERR);
+              recoverChunk();
+            }
+            finally {
+              record(source, sourceLine, sql, System.nanoTime() - start, rows, failed);
+              if (statement != null && !keepStatementOpen && statementCache == null) {
+                statement.close();
+              }
+            }
+        }
 
-        Object obj = it.next();
 
-        TokenMapping convertToken = (TokenMapping) obj;
 
-        int index = -1;
-        if (!convertToken.getCaseSensitive())
+        /**
+         * Queue a DML statement in the JDBC batch, the batch is executed once it holds size statements.
+         */
+        void addBatch(String sql, int size, PrintStream out) throws SQLException
         {
-            index = sql.toLowerCase().indexOf(convertToken.getFrom().toLowerCase());
+            addBatch(sql, size, out, null, 0);
         }
-        else{
-            index = sql.indexOf(convertToken.getFrom());
+
+        /**
+         * Queue a DML statement in the JDBC batch; the batch is timed as a whole and reported
+         * at the location of its first statement.
+         */
+        void addBatch(String sql, int size, PrintStream out, String source, int line) throws SQLException
+        {
+            sql = sql.trim();
+            if ("".equals(sql)) {
+                return;
+            }
+
+            totalSql.incrementAndGet();
+            log("SQL (batched): " + sql, Project.MSG_VERBOSE);
+
+            if (batchStatement == null) {
+                batchStatement = connection.createStatement();
+            }
+            queueBatch(sql, source, line);
+
+            if (batchedSql.size() >= size) {
+                executeBatch(out);
+            }
         }
 
-        if (index >= 0)
+        /**
+         * Queue a single row INSERT to be merged with the next ones, when inserts are merged.
+         * Any other statement executes the pending INSERTs first.
+         *
+         * @return false if the statement was not queued
+         */
+        boolean addInsert(String sql, PrintStream out, String source, int line) throws SQLException
         {
-            if (convertToken.getFirstWordOnly()) // only need to covert firstword
-            {
-                if (convertToken.getMatchWholeWord())
-                {
+            if (inserts == null) {
+                return false;
+            }
 
-                    String[] tokens = sql.split(" ");
-                    boolean match = convertToken.getCaseSensitive() ?
-                                    tokens[0].equals(convertToken.getFrom()):
-                                    tokens[0].equalsIgnoreCase(convertToken.getFrom());
+            sql = sql.trim();
+            if (inserts.size() == 0 || !inserts.add(sql, source, line)) {
+                if (InsertCoalescer.getValuesStart(sql) < 0) {
+                    executeInserts(out);
+                    return false;
+                }
+                // a new run, after the pending statements
+                executeBatch(out);
+                inserts.add(sql, source, line);
+            }
 
-                    if (match) {
-                        tokens[0] = convertToken.getTo();
+            if (inserts.isFull()) {
+                executeInserts(out);
+            }
+            return true;
+        }
 
-                        StringBuffer sb = new StringBuffer();
+        /**
+         * Execute the pending INSERTs as one statement. If it fails, roll back to a savepoint
+         * when in a transaction, and execute the original statements one at a time.
+         */
+        void executeInserts(PrintStream out) throws SQLException
+        {
+            if (inserts == null || inserts.size() == 0) {
+                return;
+            }
 
-                        for (String token : tokens) sb.append(token).append(" ");
+            int count = inserts.size();
+            if (count == 1) {
+                String sql = inserts.getSql(0);
+                String source = inserts.getSource(0);
+                int line = inserts.getLine(0);
+                inserts.clear();
+                execSQL(sql, null, out, source, line);
+                return;
+            }
 
-                        return sb.toString();
-                    }
+            String sql = inserts.getStatement();
+            long start = System.nanoTime();
+            Statement st = null;
+            Savepoint savepoint = null;
+            try {
+                totalSql.addAndGet(count);
+                log("SQL (" + count + " inserts merged): " + sql, Project.MSG_VERBOSE);
+
+                startChunk();
+                if (!isAutocommit() && supportsSavepoints()) {
+                    savepoint = connection.setSavepoint();
                 }
-                else {
-                    return sql.replaceFirst(convertToken.getFrom(), convertToken.getTo());
+                st = connection.createStatement();
+                int rows = st.executeUpdate(sql);
+
+                log(rows + " rows affected", Project.MSG_VERBOSE);
+                rowsAffected.addAndGet(rows);
+                goodSql.addAndGet(count);
+                if (print && exporter == null) {
+                    out.println(rows + " rows affected");
                 }
-              }
-              else {
-                    sql = sql.replaceAll(convertToken.getFrom(), convertToken.getTo());
-              }
+                record(inserts.getSource(0), inserts.getLine(0), "insert of " + count + " rows: " + inserts.getSql(0),
+                       System.nanoTime() - start, rows, false);
+                if (savepoint != null) {
+                    releaseSavepoint(savepoint);
+                }
+                endStatement(sql, null);
+            } catch (SQLException e) {
+                log("Merged insert of " + count + " rows failed, executing the statements one at a time: " + e,
+                    Project.MSG_VERBOSE);
+                totalSql.addAndGet(-count);
+                if (savepoint != null) {
+                    connection.rollback(savepoint);
+                }
+                for (int i = 0; i < count; i++) {
+                    execSQL(inserts.getSql(i), null, out, inserts.getSource(i), inserts.getLine(i));
+                }
+            } finally {
+                inserts.clear();
+                if (st != null) {
+                    st.close();
+                }
+            }
+        }
 
-         }
-      } // end of for loop
+        private boolean supportsSavepoints()
+        {
+            if (supportsSavepoints == null) {
+                try {
+                    supportsSavepoints = Boolean.valueOf(connection.getMetaData().supportsSavepoints());
+                } catch (SQLException e) {
+                    supportsSavepoints = Boolean.FALSE;
+                }
+            }
+            return supportsSavepoints.booleanValue();
+        }
 
-      return sql;
+        /**
+         * @return true if statements are executed in chunks between savepoints
+         */
+        private boolean isChunked()
+        {
+            return savepointChunk > 0 && !isAutocommit() && onError.equals("continue") && supportsSavepoints();
+        }
 
-    }
+        /**
+         * Take the savepoint of a new chunk, if there is none.
+         */
+        private void startChunk() throws SQLException
+        {
+            if (chunkSavepoint == null && isChunked()) {
+                chunkSavepoint = connection.setSavepoint();
+            }
+        }
 
+        /**
+         * Remember the executed statement for replay, and end the chunk once it is full.
+         */
+        private void endStatement(String sql, List<?> args)
+        {
+            if (chunkSavepoint == null) {
+                return;
+            }
+            chunkSql.add(sql);
+            chunkArgs.add(args);
+            if (chunkSql.size() >= savepointChunk) {
+                releaseSavepoint(chunkSavepoint);
+                resetChunk();
+            }
+        }
 
-    public String parseSQL(String sql)
-    {
-      // convert only first token to proper syntax, such EXEC to call
-      sql = covert(sql);
-      if (isCallable(sql))
-      {
-        StringBuffer sb = new StringBuffer("{");
-        sb.append(sql).append(" }");
+        /**
+         * After a failed statement, roll back to the chunk savepoint and replay the statements of
+         * the chunk, so the transaction can go on.
+         */
+        private void recoverChunk() throws SQLException
+        {
+            if (chunkSavepoint == null) {
+                return;
+            }
 
-        sql = sb.toString();
-      }
+            log("Rolling back to the savepoint and replaying " + chunkSql.size() + " statements",
+                Project.MSG_VERBOSE);
+            connection.rollback(chunkSavepoint);
+            for (int i = 0; i < chunkSql.size(); i++) {
+                CallableStatement cs = connection.prepareCall(chunkSql.get(i));
+                try {
+                    List<?> args = chunkArgs.get(i);
+                    if (args != null) {
+                        for (int j = 0; j < args.size(); j++) {
+                            cs.setObject(j + 1, args.get(j));
+                        }
+                    }
+                    cs.execute();
+                } catch (SQLException e) {
+                    log("Failed to replay: " + chunkSql.get(i), Project.MSG_ERR);
+                    throw e;
+                } finally {
+                    cs.close();
+                }
+            }
+        }
 
-      return sql;
-    }
+        private void resetChunk()
+        {
+            chunkSavepoint = null;
+            chunkSql.clear();
+            chunkArgs.clear();
+        }
 
+        private void releaseSavepoint(Savepoint savepoint)
+        {
+            try {
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                // not supported by all drivers, released at commit anyway
+            }
+        }
 
+        /**
+         * Execute the pending INSERTs and the statements queued in the JDBC batch, if any.
+         *
+         * When the batch fails and onerror is continue, the statements the driver
+         * did not get to after the failed one are queued and executed again.
+         */
+        void executeBatch(PrintStream out) throws SQLException
+        {
+            executeInserts(out);
+            if (batchedSql.isEmpty()) {
+                return;
+            }
 
-    /**
-     * Exec the sql statement.
-     */
-    protected void execSQL(String sql, List args, PrintStream out) throws SQLException
-    {
-        // trim space, strored procedurs is very sensitive to front white space
-        sql = sql.trim();
-        // Check and ignore empty statements
-        if ("".equals(sql)) {
-            return;
-        }
+            List<String> queued = new ArrayList<String>(batchedSql);
+            List<String> sources = new ArrayList<String>(batchSources);
+            List<Integer> lines = new ArrayList<Integer>(batchLines);
+            clearBatch();
 
-        ResultSet resultSet = null;
-        try {
+            long start = System.nanoTime();
+            try {
+                startChunk();
+                int rows = countBatchResults(queued, batchStatement.executeBatch(), out);
+                recordBatch(queued, sources, lines, start, rows, false);
+                for (String sql : queued) {
+                    endStatement(sql, null);
+                }
+            } catch (BatchUpdateException e) {
+                if (chunkSavepoint != null) {
+                    // roll back the batch and find the failed statements one at a time
+                    log("Batch of " + queued.size() + " statements failed, executing them one at a time: " + e,
+                        Project.MSG_VERBOSE);
+                    batchStatement.clearBatch();
+                    totalSql.addAndGet(-queued.size());
+                    recoverChunk();
+                    for (int i = 0; i < queued.size(); i++) {
+                        execSQL(queued.get(i), null, out, sources.get(i), lines.get(i).intValue());
+                    }
+                    return;
+                }
+
+                int[] counts = (e.getUpdateCounts() == null) ? new int[0] : e.getUpdateCounts();
+                int rows = countBatchResults(queued, counts, out);
+                recordBatch(queued, sources, lines, start, rows, true);
+                batchStatement.clearBatch();
+                failures++;
 
-            totalSql++;
-            log("SQL: " + sql, Project.MSG_VERBOSE);
+                // the driver stops at the failed statement
+                int failed = counts.length;
+                if (failed < queued.size()) {
+                    log("Failed to execute: " + queued.get(failed), Project.MSG_ERR);
+                }
 
+                if (!onError.equals("continue")) {
+                    throw e;
+                }
 
-            cstatement = conn.prepareCall(sql);
+                log(e.toString(), Project.MSG_ERR);
 
-            if (args != null && !args.isEmpty()) {
-                ListIterator it = args.listIterator();
-                while (it.hasNext()) {
-                    int index = it.nextIndex();
-                    cstatement.setObject(index + 1, it.next());
+                for (int i = failed + 1; i < queued.size(); i++) {
+                    queueBatch(queued.get(i), sources.get(i), lines.get(i).intValue());
                 }
+                executeBatch(out);
             }
+        }
+
+        private void queueBatch(String sql, String source, int line) throws SQLException
+        {
+            batchStatement.addBatch(sql);
+            batchedSql.add(sql);
+            batchSources.add(source);
+            batchLines.add(Integer.valueOf(line));
+        }
+
+        private void clearBatch()
+        {
+            batchedSql.clear();
+            batchSources.clear();
+            batchLines.clear();
+        }
 
-            int updateCount = 0, updateCountTotal = 0;
-            int returncode = cstatement.executeUpdate();
-            updateCount = cstatement.getUpdateCount();
-            resultSet = cstatement.getResultSet();
+        private void recordBatch(List<String> queued, List<String> sources, List<Integer> lines, long start,
+                                 int rows, boolean failed)
+        {
+            record(sources.get(0), lines.get(0).intValue(), "batch of " + queued.size() + " statements: " + queued.get(0),
+                   System.nanoTime() - start, rows, failed);
+        }
 
-            boolean ret = (resultSet != null);
-            do {
-              if (!ret) {
-                if (updateCount != -1) {
-                  updateCountTotal += updateCount;
+        /**
+         * @return rows affected by the batch
+         */
+        private int countBatchResults(List<String> queued, int[] counts, PrintStream out)
+        {
+            int updateCountTotal = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    log("Failed to execute: " + queued.get(i), Project.MSG_ERR);
+                    continue;
                 }
-              } else {
-                if (print) {
-                  printResults(resultSet, out);
+                if (counts[i] > 0) {
+                    updateCountTotal += counts[i];
                 }
-              }
-              ret = cstatement.getMoreResults();
-              if (ret) {
-                updateCount = cstatement.getUpdateCount();
-                resultSet = cstatement.getResultSet();
-              }
-            } while (ret);
+                goodSql.incrementAndGet();
+            }
 
-            log(updateCountTotal + " rows affected", Project.MSG_VERBOSE);
+            log(updateCountTotal + " rows affected by a batch of " + queued.size()
+                + " statements", Project.MSG_VERBOSE);
+            rowsAffected.addAndGet(updateCountTotal);
 
             if (print) {
                 StringBuffer line = new StringBuffer();
                 line.append(updateCountTotal).append(" rows affected");
                 out.println(line);
             }
+            return updateCountTotal;
+        }
 
-            SQLWarning warning = conn.getWarnings();
-            while (warning != null) {
-                log(warning + " sql warning", Project.MSG_VERBOSE);
-                warning = warning.getNextWarning();
+        /**
+         * Execute the pending batch and commit.
+         */
+        void commit(PrintStream out) throws SQLException
+        {
+            executeBatch(out);
+            log("Committing transaction", Project.MSG_VERBOSE);
+            long start = System.nanoTime();
+            connection.commit();
+            lastCommit = System.nanoTime();
+            if (stats != null) {
+                stats.recordCommit(lastCommit - start);
             }
+            if (targetStats != null) {
+                targetStats.recordCommit(lastCommit - start);
+            }
+            commits++;
+            uncommittedCount = 0;
+            uncommittedChars = 0;
+            resetChunk();
+        }
 
-            conn.clearWarnings();
-            goodSql++;
-
-        } catch (SQLException e) {
-
-          log("Failed to execute: " + sql, Project.MSG_ERR);
-
-          e.printStackTrace();
-
-          if (!onError.equals("continue")) {
-            throw e;
-          }
+        /**
+         * Count the statement just executed, and commit if commitevery, commitbytes or commitseconds
+         * is reached, without autocommit.
+         */
+        void commitIfDue(String sql, PrintStream out) throws SQLException
+        {
+            if (isAutocommit() || (commitEvery <= 0 && commitBytes <= 0 && commitSeconds <= 0)) {
+                return;
+            }
 
-          log(e.toString(), Project.MSG_ERR);
-        }
-        finally {
-          if (cstatement != null && !keepStatementOpen) {
-            cstatement.close();
-          }
+            uncommittedCount++;
+            uncommittedChars += sql.length();
+            if ((commitEvery > 0 && uncommittedCount >= commitEvery)
+                || (commitBytes > 0 && uncommittedChars >= commitBytes)
+                || (commitSeconds > 0 && System.nanoTime() - lastCommit >= commitSeconds * 1000000000L)) {
+                commit(out);
+            }
         }
-    }
-
 
+        /**
+         * @return number of commits on this session
+         */
+        int getCommits()
+        {
+            return commits;
+        }
 
-    /**
-     * print any results in the statement
-     * @deprecated use {@link #printResults(java.sql.ResultSet, java.io.PrintStream)
-     *             the two arg version} instead.
-     * @param out the place to print results
-     * @throws SQLException on SQL problems.
-     */
-    protected void printResults(PrintStream out) throws SQLException {
-        ResultSet rs = null;
-        rs = cstatement.getResultSet();
-        try {
-            printResults(rs, out);
-        } finally {
-            if (rs != null) {
-                rs.close();
+        void rollback()
+        {
+            uncommittedCount = 0;
+            uncommittedChars = 0;
+            resetChunk();
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                // ignore
             }
         }
-    }
 
-    /**
-     * print any results in the result set.
-     * @param rs the resultset to print information about
-     * @param out the place to print results
-     * @throws SQLException on SQL problems.
-     * @since Ant 1.6.3
-     */
-    protected void printResults(ResultSet rs, PrintStream out) throws SQLException {
-        if (rs != null) {
-            log("Processing new result set.", Project.MSG_VERBOSE);
-            ResultSetMetaData md = rs.getMetaData();
-            int columnCount = md.getColumnCount();
-            StringBuffer line = new StringBuffer();
-            if (showheaders) {
-                for (int col = 1; col < columnCount; col++) {
-                     line.append(md.getColumnName(col));
-                     line.append(",");
+        /**
+         * Close the statements, and the connection if asked to.
+         */
+        void close(boolean closeConnection)
+        {
+            try {
+                if (statement != null && !(keepStatementOpen && this == mainSession)
+                    && statementCache == null) {
+                    statement.close();
                 }
-                line.append(md.getColumnName(columnCount));
-                out.println(line);
-                line = new StringBuffer();
-            }
-            while (rs.next()) {
-                boolean first = true;
-                for (int col = 1; col <= columnCount; col++) {
-                    String columnValue = rs.getString(col);
-                    if (columnValue != null) {
-                        columnValue = columnValue.trim();
-                    }
-
-                    if (first) {
-                        first = false;
-                    } else {
-                        line.append(",");
+                if (batchStatement != null) {
+                    batchStatement.close();
+                    batchStatement = null;
+                    clearBatch();
+                }
+                if (inserts != null) {
+                    inserts.clear();
+                }
+                if (statementCache != null) {
+                    log("Statement cache: " + statementCache.getHits() + " hits, "
+                        + statementCache.getMisses() + " misses");
+                    statementCache.close();
+                    statementCache = null;
+                    if (this == mainSession) {
+                        cstatement = null;
                     }
-                    line.append(columnValue);
                 }
-                out.println(line);
-                line = new StringBuffer();
+                if (closeConnection) {
+                    connection.close();
+                }
+            } catch (SQLException ex) {
+                // ignore
             }
         }
-        out.println();
-    }
-
-
-    /**
-     * The action a task should perform on an error,
-     * one of "continue", "stop" and "abort"
-     */
-    public static class OnError extends EnumeratedAttribute {
-        public String[] getValues() {
-            return new String[] {"continue", "stop", "abort"};
-        }
     }
 
 
-
     ///////////////////////////////////////////////////////////////////////
 
     /**
@@ -946,6 +3111,42 @@ public class SQLEx extends JDBCTask {
         private Vector   tArgs = new Vector();
         //Transaction delimiter, it not set use sql level delimiter
         private String   tDelimiter = null;
+        //Transaction batch size, if not set use sql level batch size
+        private int      tBatchSize = -1;
+
+        private String   tName = null;
+        private String   tDefaultName = null;
+        private String[] tDependsOn = null;
+
+        //session the statements are executed on, default to the task connection
+        private Session  session = null;
+
+        //pipeline the parsed statements are queued into, null to execute them directly
+        private StatementPipeline<Transaction> tPipeline = null;
+
+        // transaction including this one, for redirect files
+        private Transaction tParent = null;
+
+        // parsed statements and includes being recorded for the include cache
+        private IncludeCache.Script tRecording = null;
+
+        // plan the statements are added to in dry run mode, instead of being executed
+        private StatementPlan.Part tPlan = null;
+
+        // shards the statements are split across, null to execute them on the transaction session
+        private ShardedExecutor<Transaction> tShards = null;
+        private ShardRouter tShardRouter = null;
+
+        // restart point in the file being read for the checkpoint journal: byte offset (-1 if unknown),
+        // lines and statements before it; statements since the last checkpoint and session commits at
+        // the last checkpoint, counted on the outermost transaction; and the frames to resume from,
+        // this file first
+        private long     tOffset = -1;
+        private int      tLine = 0;
+        private int      tOrdinal = 0;
+        private int      tUncheckpointed = 0;
+        private int      tCommits = 0;
+        private List<CheckpointJournal.Frame> tResume = null;
 
         public Transaction()
         {
@@ -966,66 +3167,370 @@ public class SQLEx extends JDBCTask {
           this.tDelimiter = s;
         }
 
+        public void setBatchSize(int size) {
+          this.tBatchSize = size;
+        }
+
+        /**
+         * Set the name other transactions refer to in dependsOn.
+         */
+        public void setName(String name) {
+          this.tName = name;
+        }
+
+        /**
+         * Set the comma separated names of the transactions which must be executed before this one.
+         */
+        public void setDependsOn(String names) {
+          Vector<String> deps = new Vector<String>();
+          for (String name : names.split(",")) {
+            if (name.trim().length() > 0) deps.add(name.trim());
+          }
+          this.tDependsOn = deps.toArray(new String[deps.size()]);
+        }
+
+        protected void setDefaultName(String name) {
+          this.tDefaultName = name;
+        }
+
+        protected String getName()
+        {
+            if (tName != null) return tName;
+            if (tDefaultName != null) return tDefaultName;
+            return (tSrcFile != null) ? tSrcFile.getPath() : null;
+        }
+
+        /**
+         * @return path the file is recorded under in the tracking table, relative to the
+         *         project directory when the file is in it
+         */
+        protected String getHistoryPath()
+        {
+            if (tName != null) return tName;
+            if (tDefaultName != null) return tDefaultName.replace(File.separatorChar, '/');
+
+            String path = tSrcFile.getAbsolutePath();
+            String base = getProject().getBaseDir().getAbsolutePath() + File.separator;
+            if (path.startsWith(base)) path = path.substring(base.length());
+            return path.replace(File.separatorChar, '/');
+        }
+
+        /**
+         * @return size of the script, used to start the longest transactions first
+         */
+        protected long getEstimatedSize()
+        {
+            long size = tSqlCommand.length();
+            if (tSrcFile != null) size += ScriptInput.getStoredFile(tSrcFile).length();
+            return size;
+        }
+
+        protected void setSession(Session session) {
+          this.session = session;
+        }
+
+        protected Session getSession()
+        {
+            return (session == null) ? mainSession : session;
+        }
+
+        protected int getBatchSize()
+        {
+            return (tBatchSize < 0) ? batchSize : tBatchSize;
+        }
+
         protected void runTransaction(PrintStream out)
             throws IOException, SQLException {
 
-            if (tSqlCommand.length() != 0) {
+            if (isSharded()) {
+                runSharded(out);
+            } else if (pipeline && tPipeline == null && tPlan == null && journal == null && getEstimatedSize() > 0) {
+                runPipeline(out);
+            } else {
+                runSources(out);
+            }
+        }
+
+        /**
+         * Parse the transaction on a separate thread and execute the statements on this one.
+         */
+        protected void runPipeline(final PrintStream out)
+            throws IOException, SQLException {
+
+            tPipeline = new StatementPipeline<Transaction>(pipelineSize);
+            try {
+                tPipeline.run("sqlex-parser", new StatementPipeline.Producer<Transaction>() {
+                    public void produce(StatementPipeline<Transaction> p) throws Exception {
+                        runSources(out);
+                    }
+                }, new StatementPipeline.Consumer<Transaction>() {
+                    public void consume(Transaction t, String sql, int line) throws Exception {
+                        t.executeStatement(sql, line, out);
+                    }
+                });
+                log("Pipeline: " + tPipeline.getStatistics(), Project.MSG_VERBOSE);
+            } catch (IOException e) {
+                throw e;
+            } catch (SQLException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BuildException(e, getLocation());
+            } finally {
+                tPipeline = null;
+            }
+        }
+
+        /**
+         * @return true if the statements are to be split across shards: not yet split, not included,
+         *         and transactions not run in parallel
+         */
+        private boolean isSharded()
+        {
+            return shards > 1 && tShards == null && tParent == null && tPlan == null && journal == null
+                   && tPipeline == null && !(parallelism > 1 && transactions.size() > 1) && getEstimatedSize() > 0;
+        }
+
+        /**
+         * Parse the transaction on this thread and execute the statements split across shards,
+         * the first one on the transaction session.
+         */
+        protected void runSharded(final PrintStream out)
+            throws IOException, SQLException {
+
+            final Session[] sessions = openSessions(getSession(), shards);
+            log("Splitting transaction " + getName() + " across " + sessions.length + " connections",
+                Project.MSG_VERBOSE);
+            tShardRouter = new ShardRouter(sessions.length, shardKey);
+            tShards = new ShardedExecutor<Transaction>(sessions.length, pipelineSize,
+                                                       new ShardedExecutor.Worker<Transaction>() {
+                public void execute(int shard, Transaction t, String sql, int line) throws Exception {
+                    t.executeStatement(sessions[shard], sql, line, out);
+                }
+
+                public void barrier(int shard) throws Exception {
+                    if (isAutocommit()) {
+                        sessions[shard].executeBatch(out);
+                    } else {
+                        sessions[shard].commit(out);
+                    }
+                }
+            });
+
+            boolean done = false;
+            try {
+                tShards.start("sqlex-shard");
+                runSources(out);
+                tShards.finish();
+                log("Shards:\n" + tShards.getStatistics(tShardRouter), Project.MSG_INFO);
+                done = true;
+            } catch (IOException e) {
+                throw e;
+            } catch (SQLException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BuildException(e, getLocation());
+            } finally {
+                try {
+                    tShards.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 1; i < sessions.length; i++) {
+                    if (!done && !isAutocommit() && onError.equals("abort")) {
+                        sessions[i].rollback();
+                    }
+                    sessions[i].close(true);
+                }
+                tShards = null;
+                tShardRouter = null;
+            }
+        }
+
+        /**
+         * Wait until the shards have executed and committed the statements queued so far,
+         * so a statement which cannot be split can be executed on the transaction session.
+         */
+        private void drainShards() throws SQLException
+        {
+            try {
+                tShards.barrier();
+            } catch (SQLException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BuildException(e, getLocation());
+            }
+        }
+
+        protected void runSources(PrintStream out)
+            throws IOException, SQLException {
+
+            if (tSqlCommand.length() != 0 && tResume != null) {
+                log("Skipping commands, executed before the checkpoint", Project.MSG_INFO);
+            } else if (tSqlCommand.length() != 0) {
                 log("Executing commands", Project.MSG_INFO);
+                tOffset = -1;
+                tLine = 0;
+                tOrdinal = 0;
                 runStatements(new StringReader(tSqlCommand), out);
             }
 
             if (tSrcFile != null) {
+                setCurrentFile(tSrcFile);
                 log("Executing file: " + tSrcFile.getAbsolutePath(),  Project.MSG_INFO);
-                Reader reader =
-                    (encoding == null) ? new FileReader(tSrcFile)
-                                       : new InputStreamReader( new FileInputStream(tSrcFile), encoding);
+                LineSource lines = openSource(tSrcFile);
                 try {
-                    runStatements(reader, out);
+                    runStatements(lines, out);
                 } finally {
-                    reader.close();
+                    lines.close();
                 }
             }
         }
 
-        protected String getExecDelimiter()
+        /**
+         * Large scripts are memory mapped, small ones are read through a reader.
+         * With a checkpoint journal the script is read with the line offsets, from the restart point if resumed.
+         * Compressed and archived scripts are decompressed as they are read.
+         */
+        protected LineSource openSource(File file) throws IOException
         {
-            return (tDelimiter == null) ? delimiter: tDelimiter;
+            tOffset = -1;
+            tLine = 0;
+            tOrdinal = 0;
+            if (ScriptInput.isCompressed(file))
+            {
+              if (journal != null)
+                log("No checkpoint is taken while executing " + file + ", it is compressed: a resumed run"
+                    + " executes it again from the start", Project.MSG_WARN);
+              InputStream in = ScriptInput.open(file);
+              return new ReaderLineSource((encoding == null) ? new InputStreamReader(in)
+                                                             : new InputStreamReader(in, encoding));
+            }
+
+            if (journal != null && SeekableLineSource.supports(encoding))
+            {
+              tOffset = resumeOffset(file);
+              return new SeekableLineSource(file, encoding, tOffset);
+            }
+
+            if (file.length() >= mapThreshold)
+            {
+              return new MappedFileLineSource(file, encoding, mapWindowSize);
+            }
+
+            Reader reader =
+                (encoding == null) ? new FileReader(file)
+                                   : new InputStreamReader( new FileInputStream(file), encoding);
+            return new ReaderLineSource(reader);
         }
 
-        protected String getStatementExecDelimiter(String sql)
+        /**
+         * Take the frame of the file from the frames to resume from, the nested ones are left for its include.
+         *
+         * @return offset of the restart point in the file, 0 if not resumed
+         */
+        private long resumeOffset(File file) throws IOException
         {
-            String execDelimiter = getExecDelimiter();
+            if (tResume == null || tResume.isEmpty())
+            {
+              tResume = null;
+              return 0;
+            }
 
-            String sql2 = sql.toUpperCase();
-            if (sql2 != null && sql2.length() > 0)
+            CheckpointJournal.Frame frame = tResume.get(0);
+            if (!frame.matches(file))
             {
-                if (sql2.startsWith("CREATE OR REPLACE") ||
-                    sql2.startsWith("CREATE TRIGGER") ||
-                    sql2.startsWith("CREATE PROCEDURE") ||
-                    sql2.startsWith("CREATE FUNCTION") )
-                {
-                    execDelimiter = delimiter; // SQL delimiter (outer delimiter)
-                    return execDelimiter;
-                }
+              throw new BuildException(file + " changed since the checkpoint " + frame + ", delete "
+                                       + journal.getFile() + " to run from the start", getLocation());
+            }
+            tResume = (tResume.size() > 1) ? tResume.subList(1, tResume.size()) : null;
+            tLine = frame.getLine();
+            tOrdinal = frame.getOrdinal();
+            log("Resuming " + file + " at line " + (tLine + 1) + ", after " + tOrdinal + " statements",
+                Project.MSG_INFO);
+            return frame.getOffset();
+        }
 
-                //try again by take out the white spaces
-                int createIndex = sql2.indexOf("CREATE");
-                if (sql2.startsWith("CREATE") )
-                {
-                    String createStr = sql2.substring(createIndex).trim();
-                    if (createStr.startsWith("OR") ||
-                        createStr.startsWith("TRIGGER") ||
-                        createStr.startsWith("PROCEDURE") ||
-                        createStr.startsWith("FUNCTION"))
-                    {
-
-                        execDelimiter = delimiter;
-                        return execDelimiter;
-                    }
-                }
+        /**
+         * Save the restart points of this file and the including ones, the statements before them being committed.
+         * Nothing is saved if the offset of one of them is unknown.
+         */
+        private void checkpoint() throws IOException
+        {
+            List<CheckpointJournal.Frame> frames = new ArrayList<CheckpointJournal.Frame>();
+            Transaction root = this;
+            for (Transaction t = this; t != null; t = t.tParent)
+            {
+              if (t.tOffset < 0)
+                return;
+              File f = t.tSrcFile;
+              frames.add(0, new CheckpointJournal.Frame(f.getCanonicalPath(), f.length(), f.lastModified(),
+                                                        t.tOffset, t.tLine, t.tOrdinal));
+              root = t;
+            }
+            journal.checkpoint(root.getName(), frames);
+            root.tUncheckpointed = 0;
+        }
+
+        /**
+         * Move the restart point after the statement just submitted, and take a checkpoint every
+         * checkpointinterval statements with autocommit, or after the statement if it was committed.
+         *
+         * @param offset offset of the next line, -1 if the statement does not end a line
+         */
+        private void statementDone(long offset, int line, int ordinal, PrintStream out)
+            throws SQLException, IOException
+        {
+            Transaction root = this;
+            while (root.tParent != null)
+              root = root.tParent;
+
+            Session s = getSession();
+            boolean committed = (s.getCommits() != root.tCommits);
+            root.tCommits = s.getCommits();
+            root.tUncheckpointed++;
+            if (offset < 0)
+              return;
+
+            tOffset = offset;
+            tLine = line;
+            tOrdinal = ordinal;
+            if (isAutocommit() && root.tUncheckpointed >= checkpointInterval)
+            {
+              s.executeBatch(out);
+              checkpoint();
+            }
+            else if (committed)
+            {
+              checkpoint();
             }
+        }
+
+        /**
+         * @return true if the statements before a failed one are all committed: autocommit,
+         *         without batching nor merged INSERTs
+         */
+        private boolean isCheckpointExact()
+        {
+            return isAutocommit() && getBatchSize() <= 1 && getCoalesceRows() == 0;
+        }
+
+        protected String getExecDelimiter()
+        {
+            return (tDelimiter == null) ? delimiter: tDelimiter;
+        }
+
+        protected String getStatementExecDelimiter(String sql)
+        {
+            if (sql != null && getDialect().isBlockStart(sql))
+                return delimiter; // SQL delimiter (outer delimiter)
 
-            return execDelimiter;
+            return getExecDelimiter();
         }
 
         // start a new transaction for the redirect file
@@ -1035,6 +3540,19 @@ public class SQLEx extends JDBCTask {
           Transaction t = new Transaction();
           //set parent deliminator to the nested transimiteDeliminator
           t.setTransactionDelimiter(this.tDelimiter);
+          t.setBatchSize(this.tBatchSize);
+          t.setSession(this.session);
+          t.tPipeline = this.tPipeline;
+          t.tPlan = this.tPlan;
+          t.tShards = this.tShards;
+          t.tShardRouter = this.tShardRouter;
+          t.tParent = this;
+          // the nested frames to resume from belong to the first include
+          t.tResume = this.tResume;
+          this.tResume = null;
+
+          if (tRecording != null)
+              tRecording.addInclude(filename);
 
           // trim off whitespace
           filename = filename.trim();
@@ -1054,152 +3572,332 @@ public class SQLEx extends JDBCTask {
           {
               filename = filename.substring(0, deIndex);
           }
-          if (tSrcFile != null)
+          if (tSrcFile != null && ScriptInput.isArchive(tSrcFile))
+              t.setSrc(new File(tSrcFile.getPath() + "!" + File.separator + filename));
+          else if (tSrcFile != null)
               t.setSrc(new File(tSrcFile.getParentFile(), filename));
           else
               t.setSrc(new File(filename));
 
-            t.runTransaction(out);
+            t.runInclude(out);
         }
 
-        // start a new transaction for the redirect file
         /**
-         *
-         * @param sqlbuf StringBuffer, resulting sql statement
-         * @param line String, current line read from the file
-         * @param inCommentBlock boolean, indicating that if the current line is in a comment block
-         *        if inCommentBlock = true. This is the case when comment started from previous line
-         *        but did not end in previous line.
-         * @return String, return remaining sql statement after comments;
-         * @throws SQLException
-         * @throws IOException
+         * Show the file in the live counters, if kept.
          */
-        protected boolean processBlockComments(StringBuffer sqlbuf, String line, boolean inCommentBlock)
-            throws SQLException, IOException
+        private void setCurrentFile(File file)
         {
+          ExecutionMetrics m = metrics;
+          if (m != null)
+            m.setCurrentFile(file.getAbsolutePath());
+        }
 
-          /* C-Style COMMENTS*/
-          int startIndex = line.indexOf("/*");
+        /**
+         * Run the redirect file of this transaction, replaying it from the include cache if it was parsed before.
+         */
+        protected void runInclude(PrintStream out)
+            throws SQLException, IOException
+        {
+          File file = tSrcFile.getCanonicalFile();
+          checkIncludeCycle(file);
 
-          if (inCommentBlock && startIndex >= 0)
+          IncludeCache cache = includeCache;
+          if (cache == null)
           {
-            log(" comments must ends with */ before start another commment with /* ", Project.MSG_VERBOSE);
+            runTransaction(out);
+            return;
           }
-
-          if (startIndex >= 0)
+          cache.addInclude(tParent.getIncludePath(), file.getPath());
+          if (!includeCacheEnabled || journal != null)
           {
-            inCommentBlock = true;
-            String preline=line.substring(0, startIndex);
-
-            if (!"".equals(preline)) sqlbuf.append(" ").append(preline);
-
-            line = line.substring(startIndex+2);
-            //reset startIndex
-            startIndex = -1;
+            runTransaction(out);
+            return;
           }
 
-          int endIndex = line.indexOf("*/");
-
-          if (!inCommentBlock && endIndex >= 0) {
-            log(" comments must start with /* before ends with /* ", Project.MSG_VERBOSE);
+          String key = file.getPath() + '\n' + getExecDelimiter();
+          // entries of an archive are checked against the archive
+          File stored = ScriptInput.getStoredFile(file);
+          IncludeCache.Script script = cache.get(key, stored);
+          if (script != null)
+          {
+            setCurrentFile(tSrcFile);
+            log("Executing file: " + tSrcFile.getAbsolutePath() + " (cached)",  Project.MSG_INFO);
+            for (int i = 0; i < script.size(); i++)
+            {
+              if (script.isInclude(i))
+                processRedirectFile(script.getText(i), out);
+              else
+                submitStatement(script.getText(i), script.getLine(i), out);
+            }
+            return;
           }
 
-          if (inCommentBlock && endIndex >= 0) {
-            inCommentBlock =false;
-            line=line.substring(endIndex + 2);
-            inCommentBlock= processBlockComments(sqlbuf, line, inCommentBlock);
+          long lastModified = stored.lastModified();
+          long length = stored.length();
+          tRecording = new IncludeCache.Script();
+          try {
+            runTransaction(out);
+            cache.put(key, lastModified, length, tRecording);
+          } finally {
+            tRecording = null;
           }
+        }
 
-          if (inCommentBlock && keepformat ) {
-            if (!"".equals(line))
-                sqlbuf.append(" ").append(line);
+        /**
+         * @return canonical path of the file, or the transaction name
+         */
+        private String getIncludePath() throws IOException
+        {
+          return (tSrcFile != null) ? tSrcFile.getCanonicalPath() : getName();
+        }
 
-            line = "";
+        /**
+         * @throws BuildException if the file is already being executed by one of the including transactions
+         */
+        private void checkIncludeCycle(File file) throws IOException
+        {
+          for (Transaction p = tParent; p != null; p = p.tParent)
+          {
+            if (p.tSrcFile != null && p.tSrcFile.getCanonicalFile().equals(file))
+            {
+              StringBuilder chain = new StringBuilder(file.getPath());
+              for (Transaction q = tParent; q != p; q = q.tParent)
+                chain.insert(0, q.getIncludePath() + " -> ");
+              chain.insert(0, file.getPath() + " -> ");
+              throw new BuildException("Include cycle: " + chain, getLocation());
+            }
           }
-
-          if (!inCommentBlock)
-            sqlbuf.append(line);
-
-          return inCommentBlock;
         }
 
-
-         protected void runStatements(Reader reader, PrintStream out )
+        /**
+         * Split the script read from the reader into statements and execute them.
+         */
+        protected void runStatements(Reader reader, PrintStream out )
             throws SQLException, IOException
         {
+            runStatements(new ReaderLineSource(reader), out);
+        }
 
-            StringBuffer sql = new StringBuffer();
-            String line = "";
-
-            BufferedReader in = new BufferedReader(reader);
-
-            boolean inBlockComments = false;
-            while ((line = in.readLine()) != null)
+        /**
+         * Split the script into statements and execute them.
+         *
+         * Line level rules (comment symbols, file redirects and property replacement) are applied here,
+         * the statements are then assembled by a single pass {@link SQLStatementSplitter}.
+         * Lines are not copied unless they contain a property to replace.
+         */
+        protected void runStatements(LineSource lines, PrintStream out )
+            throws SQLException, IOException
+        {
+            SQLStatementSplitter splitter =
+                new SQLStatementSplitter(getExecDelimiter(), delimiter,
+                                         DelimiterType.ROW.equals(delimiterType), keepformat,
+                                         getDialect().getBlockStarts());
+            CharSequence line;
+            int lineNumber = tLine;
+            int statementLine = 0;
+            int ordinal = tOrdinal;
+
+            // line offsets are only needed for the checkpoint journal, which a dry run does not write
+            boolean checkpoints = (journal != null && tPlan == null);
+            long nextOffset = checkpoints ? lines.getOffset() : -1;
+            ExecutionMetrics m = metrics;
+
+            while ((line = lines.readLine()) != null)
             {
+               long lineOffset = nextOffset;
+               if (checkpoints)
+                 nextOffset = lines.getOffset();
+               if (m != null)
+                 m.parsed(line.length());
+
+               lineNumber++;
+               if (!splitter.isInLiteralOrComment())
+               {
+                 int start = skipWhiteSpaces(line);
+                 String redirectSymbol = execRedirect;
+                 if (redirectSymbol != null && regionMatches(line, start, redirectSymbol, false))
+                 {
+                   String filename = line.subSequence(start + redirectSymbol.length(), line.length()).toString();
+                   if (checkpoints && splitter.isEmpty())
+                   {
+                     // checkpoints of the include restart from this line
+                     tOffset = lineOffset;
+                     tLine = lineNumber - 1;
+                     tOrdinal = ordinal;
+                   }
+                   processRedirectFile(filename,out);
+                   if (checkpoints && splitter.isEmpty())
+                   {
+                     tOffset = nextOffset;
+                     tLine = lineNumber;
+                   }
+                   continue;
+                 }
 
-              if (!keepformat) {
-                 line = line.trim();
-                 sql.append(" ");
-               } else {
-                 sql.append("\n");
+                 if (isStartWithCommentSymbol(line, start))
+                   continue;
                }
 
-               if (redirect != null && line.startsWith(redirect) )
+               line = getSubstitutor().substitute(line);
+
+               if (splitter.isEmpty())
+                 statementLine = lineNumber;
+
+               String sqlstr = splitter.addLine(line);
+               if (sqlstr != null)
                {
-                 String filename = line.substring(redirect.length());
-                 processRedirectFile(filename,out);
+                 try {
+                   submitStatement(parseSQL(sqlstr), statementLine, out);
+                 } catch (SQLException e) {
+                   // resume at the failed statement, the ones before are committed
+                   if (checkpoints && isCheckpointExact())
+                     checkpoint();
+                   throw e;
+                 }
+                 ordinal++;
+                 if (checkpoints)
+                   statementDone(splitter.isEmpty() ? nextOffset : -1, lineNumber, ordinal, out);
                }
-               else {
-                 boolean startedWithCommentSymbol = isStartWithCommentSymbol(line);
-                 line = getProject().replaceProperties(line);
+            }
 
-                 if (startedWithCommentSymbol)
-                  continue;
+            // Catch any statements not followed by ;
+            String sqlstr = splitter.flush();
+            if (sqlstr != null && allowNonDelimiterSQL)
+            {
+              submitStatement(parseSQL(sqlstr), statementLine, out);
+            }
+        }
 
-                inBlockComments = processBlockComments(sql, line, inBlockComments);
+        /**
+         * Execute the statement, or queue it for execution in pipeline mode.
+         *
+         * @param line line of the script the statement starts on
+         */
+        protected void submitStatement(String sql, int line, PrintStream out)
+            throws SQLException
+        {
+            if (tRecording != null)
+            {
+              tRecording.addStatement(sql, line);
+            }
 
-                // SQL defines "--" as a comment to EOL
-                // and in Oracle it may contain a hint
-                // so we cannot just remove it, instead we must end it
+            if (tPlan != null)
+            {
+              tPlan.add(getPlanSource(), line, sql);
+              return;
+            }
 
+            if (tShards != null)
+            {
+              submitShard(sql, line, out);
+            }
+            else if (tPipeline != null)
+            {
+              tPipeline.put(this, sql, line);
+            }
+            else {
+              executeStatement(sql, line, out);
+            }
+        }
 
-                  if (line.indexOf("--") >= 0) {
-                    sql.append("\n");
-                  }
-                  else {                     //take care tailing while space
-                    sql.replace(0, sql.length(), sql.toString().trim());
-                  }
+        /**
+         * Queue the statement on its shard, or execute and commit it on the transaction session once the shards
+         * are drained.
+         */
+        private void submitShard(String sql, int line, PrintStream out)
+            throws SQLException
+        {
+            int shard = tShardRouter.route(sql);
+            if (shard >= 0)
+            {
+              try {
+                tShards.put(shard, this, sql, line);
+              } catch (SQLException e) {
+                throw e;
+              } catch (RuntimeException e) {
+                throw e;
+              } catch (Exception e) {
+                throw new BuildException(e, getLocation());
+              }
+              return;
+            }
 
-               // determine which level deimiter (Outer SQL, or transaction level) to use
-               // depending on sql syntax
-
-               String sqlstr = sql.toString();
-               String sqlExecDelimiter = getStatementExecDelimiter(sqlstr);
-
-                   if (delimiterType != null && sqlExecDelimiter != null) {
-                       if ((delimiterType.equals(DelimiterType.NORMAL)
-                               && sqlstr.toUpperCase().endsWith(sqlExecDelimiter.toUpperCase()))
-                               ||
-                               (delimiterType.equals(DelimiterType.ROW)
-                                       && line.trim().equalsIgnoreCase(sqlExecDelimiter))) {
-                           // not support argument yet.
-                           sqlstr = parseSQL(sql.substring(0, sql.length() - sqlExecDelimiter.length()));
-                           execSQL(sqlstr, null, out);
-                           sql.replace(0, sql.length(), "");
-                           sqlstr = null;
-                       }
-                   }
+            // committed at once, so the shards do not wait for its locks
+            drainShards();
+            Session s = getSession();
+            executeStatement(s, sql, line, out);
+            if (isAutocommit()) {
+              s.executeBatch(out);
+            } else {
+              s.commit(out);
+            }
+        }
 
-               }
+        /**
+         * @return the file the statements come from relative to the project directory, or the transaction name
+         */
+        protected String getPlanSource()
+        {
+            return (tSrcFile != null) ? StatementPlan.getSource(getProject().getBaseDir(), tSrcFile) : getName();
+        }
+
+        /**
+         * @return the file the statements come from, or the transaction name
+         */
+        protected String getSource()
+        {
+            return (tSrcFile != null) ? tSrcFile.getPath() : getName();
+        }
+
+        /**
+         * Batch DML statements if batching is on, otherwise execute the pending batch
+         * and then the statement itself.
+         */
+        protected void executeStatement(String sql, PrintStream out)
+            throws SQLException
+        {
+            executeStatement(sql, 0, out);
+        }
+
+        /**
+         * @param line line of the script the statement starts on, reported in the statistics
+         */
+        protected void executeStatement(String sql, int line, PrintStream out)
+            throws SQLException
+        {
+            executeStatement(getSession(), sql, line, out);
+        }
+
+        /**
+         * @param s session to execute the statement on
+         */
+        protected void executeStatement(Session s, String sql, int line, PrintStream out)
+            throws SQLException
+        {
+            executeStatement(s, getSource(), sql, line, out);
+        }
 
-                // Catch any statements not followed by ;
-              if (!sql.equals("") && allowNonDelimiterSQL)
+        /**
+         * @param source file the statement comes from, reported in the statistics
+         */
+        protected void executeStatement(Session s, String source, String sql, int line, PrintStream out)
+            throws SQLException
+        {
+            int size = getBatchSize();
+            // single row INSERTs are queued to be merged with the next ones
+            if (!s.addInsert(sql, out, source, line))
+            {
+              if (size > 1 && StatementClassifier.isBatchable(sql))
               {
-                String sqlstr = parseSQL(sql.toString());
-                execSQL(sqlstr, null, out);
+                s.addBatch(sql, size, out, source, line);
+              }
+              else {
+                s.executeBatch(out);
+                // not support argument yet.
+                s.execSQL(sql, null, out, source, line);
               }
             }
-
+            s.commitIfDue(sql, out);
         }
 
 
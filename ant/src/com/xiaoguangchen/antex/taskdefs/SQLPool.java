@@ -0,0 +1,122 @@
+package com.xiaoguangchen.antex.taskdefs;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.JDBCTask;
+
+import com.xiaoguangchen.antex.taskdefs.sql.ConnectionPool;
+
+/**
+ * <p>Title: SQLPool</p>
+ *
+ * <p>Description: build scoped JDBC connection pool, shared by the sqlex tasks of the build so that
+ * each sqlex does not load the driver, connect and authenticate again.
+ *
+ * The pool takes the same connection attributes as sqlex (driver, url, userid, password, classpath)
+ * and is referenced from sqlex with poolref:
+ *
+ * <pre>
+ *   &lt;sqlpool id="db.pool" driver="${jdbc.driver}" url="${jdbc.url}"
+ *            userid="${db.username}" password="${db.password}"
+ *            minsize="1" maxsize="4" validationquery="select 1 from dual"/&gt;
+ *
+ *   &lt;sqlex poolref="db.pool" src="create.sql"/&gt;
+ * </pre>
+ *
+ * Connections are validated when borrowed and returned to the pool when the sqlex is done, uncommitted
+ * work being rolled back. The pool is closed and its usage (borrows, waits, peak connections in use)
+ * logged when the build finishes. Define the pool in the main build (not in an antcall target),
+ * it is closed when that build finishes.
+ * </p>
+ *
+ * @ant.task name="sqlpool" category="database"
+ */
+public class SQLPool extends JDBCTask {
+
+    private int     minSize = 1;
+    private int     maxSize = 8;
+    private String  validationQuery = null;
+    private long    maxWait = 60000;
+
+    private ConnectionPool pool = null;
+
+    /**
+     * Set the number of connections opened when the pool is created; optional, default 1
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Set the maximum number of connections; optional, default 8
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Set the query used to validate a connection when it is borrowed;
+     * optional, by default a connection is valid unless it is closed
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Set the milliseconds to wait for a free connection, 0 waits forever; optional, default 60000
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public void execute() throws BuildException {
+        String id = (String) getRuntimeConfigurableWrapper().getAttributeMap().get("id");
+        if (id == null) {
+            throw new BuildException("id attribute must be set!", getLocation());
+        }
+        if (getUrl() == null) {
+            throw new BuildException("url attribute must be set!", getLocation());
+        }
+        if (pool != null) {
+            return;
+        }
+
+        pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+            public Connection create() throws SQLException {
+                return getConnection();
+            }
+        }, minSize, maxSize, validationQuery, maxWait);
+
+        try {
+            pool.fill();
+        } catch (SQLException e) {
+            pool.close();
+            pool = null;
+            throw new BuildException(e, getLocation());
+        }
+
+        // register the pool itself, so that it is seen as a DataSource whatever loaded the tasks
+        getProject().addReference(id, pool);
+
+        getProject().addBuildListener(new BuildListener() {
+            public void buildFinished(BuildEvent event) {
+                log("Connection pool: " + pool.getStatistics(), Project.MSG_INFO);
+                pool.close();
+            }
+
+            public void buildStarted(BuildEvent event) {}
+            public void targetStarted(BuildEvent event) {}
+            public void targetFinished(BuildEvent event) {}
+            public void taskStarted(BuildEvent event) {}
+            public void taskFinished(BuildEvent event) {}
+            public void messageLogged(BuildEvent event) {}
+        });
+
+        log("Connection pool opened for " + getUrl(), Project.MSG_VERBOSE);
+    }
+}
@@ -0,0 +1,124 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dialect defined by tables: jdbc url prefixes, comment symbols, block starts and column types.
+ * The built-in dialects are instances of this class; custom dialects may extend it.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class BasicDialect implements Dialect {
+
+    /**
+     * block starts of all dialects
+     */
+    public static final String[] BLOCK_STARTS = new String[] {
+            "CREATE OR REPLACE", "CREATE TRIGGER", "CREATE PROCEDURE", "CREATE FUNCTION"};
+
+    private final String   name;
+    private final String[] urlPrefixes;
+    private final String[] commentSymbols;
+    private final String   defaultDelimiter;
+    private final String   redirect;
+    private final String[] blockStarts;
+    private final int      maxInsertRows;
+
+    private final Map<Integer, String> typeNames = new HashMap<Integer, String>();
+    private String schemaSql = "SET SCHEMA {schema}";
+
+    /**
+     * @param name             name of the dialect
+     * @param urlPrefixes      jdbc url prefixes of the database
+     * @param commentSymbols   vendor comment symbols
+     * @param defaultDelimiter statement delimiter used when none is set, or null
+     * @param redirect         include symbol, or null
+     * @param blockStarts      vendor block starts, in addition to {@link #BLOCK_STARTS}
+     * @param maxInsertRows    maximum number of rows of a multi-row INSERT, 0 if not supported
+     */
+    public BasicDialect(String name, String[] urlPrefixes, String[] commentSymbols, String defaultDelimiter,
+                        String redirect, String[] blockStarts, int maxInsertRows) {
+        this.name = name;
+        this.urlPrefixes = urlPrefixes;
+        this.commentSymbols = commentSymbols;
+        this.defaultDelimiter = defaultDelimiter;
+        this.redirect = redirect;
+        this.blockStarts = new String[BLOCK_STARTS.length + blockStarts.length];
+        System.arraycopy(BLOCK_STARTS, 0, this.blockStarts, 0, BLOCK_STARTS.length);
+        System.arraycopy(blockStarts, 0, this.blockStarts, BLOCK_STARTS.length, blockStarts.length);
+        this.maxInsertRows = maxInsertRows;
+
+        typeNames.put(Integer.valueOf(Types.VARCHAR), "VARCHAR");
+        typeNames.put(Integer.valueOf(Types.BIGINT), "BIGINT");
+        typeNames.put(Integer.valueOf(Types.SMALLINT), "SMALLINT");
+        typeNames.put(Integer.valueOf(Types.TIMESTAMP), "TIMESTAMP");
+    }
+
+    /**
+     * Use another column type name than the standard one.
+     *
+     * @return this dialect
+     */
+    public BasicDialect setTypeName(int sqlType, String typeName) {
+        typeNames.put(Integer.valueOf(sqlType), typeName);
+        return this;
+    }
+
+    /**
+     * Use another statement than SET SCHEMA to change the schema of a connection.
+     *
+     * @param schemaSql statement with {schema} in place of the schema name
+     * @return this dialect
+     */
+    public BasicDialect setSchemaSql(String schemaSql) {
+        this.schemaSql = schemaSql;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean accepts(String url) {
+        for (String prefix : urlPrefixes) {
+            if (url.regionMatches(true, 0, prefix, 0, prefix.length())) return true;
+        }
+        return false;
+    }
+
+    public String[] getCommentSymbols() {
+        return commentSymbols;
+    }
+
+    public String getDefaultDelimiter() {
+        return defaultDelimiter;
+    }
+
+    public String getRedirect() {
+        return redirect;
+    }
+
+    public String[] getBlockStarts() {
+        return blockStarts;
+    }
+
+    public int getMaxInsertRows() {
+        return maxInsertRows;
+    }
+
+    public String getTypeName(int sqlType) {
+        String typeName = typeNames.get(Integer.valueOf(sqlType));
+        if (typeName == null) throw new IllegalArgumentException("no type name for sql type " + sqlType);
+        return typeName;
+    }
+
+    public String getSchemaSql(String schema) {
+        return schemaSql.replace("{schema}", schema);
+    }
+
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,187 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Restart points of the transactions of a task, saved after each commit so a failed run can be resumed.
+ *
+ * A transaction is either done, or has a restart point: one {@link Frame} per file being executed,
+ * from the transaction file down to the innermost redirect file. The journal is a properties file keyed
+ * by transaction name; it is written to a temporary file first and then renamed, so a crash leaves the
+ * previous version.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class CheckpointJournal {
+
+    private static final String DONE = "done";
+
+    /**
+     * Position in one file: the next line to read, and the statements executed before it.
+     */
+    public static class Frame {
+        private final String path;
+        private final long   length;
+        private final long   lastModified;
+        private final long   offset;
+        private final int    line;
+        private final int    ordinal;
+
+        /**
+         * @param path    canonical path of the file
+         * @param offset  byte offset of the next line to read
+         * @param line    number of lines read before the offset
+         * @param ordinal number of statements of the file executed before the offset
+         */
+        public Frame(String path, long length, long lastModified, long offset, int line, int ordinal) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.line = line;
+            this.ordinal = ordinal;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * @return true if the file is the one of the frame, unchanged since the checkpoint
+         */
+        public boolean matches(File file) throws IOException {
+            return path.equals(file.getCanonicalPath())
+                   && length == file.length() && lastModified == file.lastModified();
+        }
+
+        public String toString() {
+            return path + ":" + line + " (statement " + ordinal + ")";
+        }
+    }
+
+    private final File       file;
+    private final Properties entries = new Properties();
+
+    public CheckpointJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Read the restart points of the previous run, if the journal exists.
+     *
+     * @return true if the journal exists
+     */
+    public synchronized boolean load() throws IOException {
+        entries.clear();
+        if (!file.exists()) return false;
+
+        InputStream in = new FileInputStream(file);
+        try {
+            entries.load(in);
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    public synchronized boolean isDone(String transaction) {
+        return DONE.equals(entries.getProperty(transaction));
+    }
+
+    /**
+     * @return restart point of the transaction, outermost file first, or null if it has none
+     */
+    public synchronized List<Frame> getFrames(String transaction) throws IOException {
+        String value = entries.getProperty(transaction);
+        if (value == null || DONE.equals(value)) return null;
+
+        String[] fields = value.split("\t");
+        if (fields.length % 6 != 0) {
+            throw new IOException("corrupt entry " + transaction + " in checkpoint journal " + file);
+        }
+
+        List<Frame> frames = new ArrayList<Frame>(fields.length / 6);
+        try {
+            for (int i = 0; i < fields.length; i += 6) {
+                frames.add(new Frame(fields[i], Long.parseLong(fields[i + 1]), Long.parseLong(fields[i + 2]),
+                                     Long.parseLong(fields[i + 3]), Integer.parseInt(fields[i + 4]),
+                                     Integer.parseInt(fields[i + 5])));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("corrupt entry " + transaction + " in checkpoint journal " + file);
+        }
+        return Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * Save the restart point of the transaction.
+     */
+    public synchronized void checkpoint(String transaction, List<Frame> frames) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Frame f : frames) {
+            if (sb.length() > 0) sb.append('\t');
+            sb.append(f.path).append('\t').append(f.length).append('\t').append(f.lastModified)
+              .append('\t').append(f.offset).append('\t').append(f.line).append('\t').append(f.ordinal);
+        }
+        entries.setProperty(transaction, sb.toString());
+        write();
+    }
+
+    /**
+     * Record the transaction as committed to the end.
+     */
+    public synchronized void done(String transaction) throws IOException {
+        entries.setProperty(transaction, DONE);
+        write();
+    }
+
+    /**
+     * Forget all restart points and delete the journal.
+     */
+    public synchronized void delete() throws IOException {
+        entries.clear();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot delete checkpoint journal " + file);
+        }
+    }
+
+    private void write() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            entries.store(out, "sqlex checkpoint journal");
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        // rename over an existing file is not atomic everywhere, delete first where it fails
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("cannot write checkpoint journal " + file);
+        }
+    }
+}
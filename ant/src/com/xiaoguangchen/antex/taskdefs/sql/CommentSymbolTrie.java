@@ -0,0 +1,114 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line comment symbols compiled into a prefix trie, keyed on upper cased characters.
+ *
+ * A line is classified in one scan over its first characters, without allocation: the scan stops
+ * at the first symbol ending on the path, or when no symbol continues with the next character.
+ * Case insensitive symbols match any case; case sensitive symbols share the path of their upper
+ * cased form and are compared exactly when the path reaches their end.
+ *
+ * Once built, instances can be shared between threads.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class CommentSymbolTrie {
+
+    private static final int ASCII = 128;
+
+    private static class Node {
+        Node[]               ascii;
+        Map<Character, Node> other;
+        // a case insensitive symbol ends here
+        boolean              anyCase;
+        // case sensitive symbols ending here
+        List<String>         exact;
+
+        Node next(char c) {
+            if (c < ASCII) return (ascii == null) ? null : ascii[c];
+            return (other == null) ? null : other.get(Character.valueOf(c));
+        }
+
+        Node add(char c) {
+            Node n = next(c);
+            if (n != null) return n;
+            n = new Node();
+            if (c < ASCII) {
+                if (ascii == null) ascii = new Node[ASCII];
+                ascii[c] = n;
+            } else {
+                if (other == null) other = new HashMap<Character, Node>();
+                other.put(Character.valueOf(c), n);
+            }
+            return n;
+        }
+    }
+
+    private final Node root = new Node();
+    private boolean    empty = true;
+
+    public CommentSymbolTrie() {
+    }
+
+    /**
+     * Add a symbol; empty symbols are ignored.
+     */
+    public void add(String symbol, boolean caseSensitive) {
+        if (symbol == null || symbol.length() == 0) return;
+
+        Node n = root;
+        for (int i = 0; i < symbol.length(); i++) {
+            n = n.add(fold(symbol.charAt(i)));
+        }
+        if (caseSensitive) {
+            if (n.exact == null) n.exact = new ArrayList<String>(1);
+            n.exact.add(symbol);
+        } else {
+            n.anyCase = true;
+        }
+        empty = false;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return true if the line starts, from start on, with one of the symbols
+     */
+    public boolean matches(CharSequence line, int start) {
+        if (line == null || empty) return false;
+
+        Node n = root;
+        int len = line.length();
+        for (int i = start; i < len; i++) {
+            n = n.next(fold(line.charAt(i)));
+            if (n == null) return false;
+            if (n.anyCase) return true;
+            if (n.exact != null && matchesExact(n.exact, line, start)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matchesExact(List<String> symbols, CharSequence line, int start) {
+        for (int k = 0; k < symbols.size(); k++) {
+            String s = symbols.get(k);
+            int i = 0;
+            while (i < s.length() && line.charAt(start + i) == s.charAt(i)) i++;
+            if (i == s.length()) return true;
+        }
+        return false;
+    }
+
+    private static char fold(char c) {
+        if (c < ASCII) {
+            return (c >= 'a' && c <= 'z') ? (char) (c - ('a' - 'A')) : c;
+        }
+        return Character.toUpperCase(c);
+    }
+}
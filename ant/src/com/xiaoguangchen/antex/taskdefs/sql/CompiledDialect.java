@@ -0,0 +1,108 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+/**
+ * Tables of a {@link Dialect} compiled for parsing: the comment symbols and the block starts as tries,
+ * so a line or a statement is classified in one scan over its first characters.
+ *
+ * Instances are immutable and shared between tasks and threads by the {@link DialectRegistry}.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class CompiledDialect {
+
+    /**
+     * comment symbols of all dialects
+     */
+    public static final String[] COMMENT_SYMBOLS = new String[] {"--", "REM", "//"};
+
+    // longest block start looked at
+    private static final int HEAD_LENGTH = 32;
+
+    private final Dialect           dialect;
+    private final CommentSymbolTrie commentSymbols;
+    private final CommentSymbolTrie blockStarts;
+
+    public CompiledDialect(Dialect dialect) {
+        this.dialect = dialect;
+        this.commentSymbols = new CommentSymbolTrie();
+        addCommentSymbols(commentSymbols);
+        this.blockStarts = new CommentSymbolTrie();
+        for (String s : dialect.getBlockStarts()) {
+            blockStarts.add(s, false);
+        }
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    public String getName() {
+        return dialect.getName();
+    }
+
+    /**
+     * Add the comment symbols of the dialect to a trie, for a task which has comment symbols of its own.
+     */
+    public void addCommentSymbols(CommentSymbolTrie trie) {
+        for (String s : COMMENT_SYMBOLS) {
+            trie.add(s, false);
+        }
+        String[] symbols = dialect.getCommentSymbols();
+        if (symbols != null) {
+            for (String s : symbols) {
+                trie.add(s, false);
+            }
+        }
+    }
+
+    /**
+     * @return the comment symbols of the dialect
+     */
+    public CommentSymbolTrie getCommentSymbols() {
+        return commentSymbols;
+    }
+
+    /**
+     * @return the block starts, to be matched on the single spaced start of a statement
+     */
+    public CommentSymbolTrie getBlockStarts() {
+        return blockStarts;
+    }
+
+    /**
+     * @return true if the statement starts a block ended by the outer delimiter
+     */
+    public boolean isBlockStart(CharSequence sql) {
+        // collapse white space runs, the table is single spaced
+        StringBuilder head = new StringBuilder(HEAD_LENGTH);
+        for (int i = 0; i < sql.length() && head.length() < HEAD_LENGTH; i++) {
+            char c = sql.charAt(i);
+            if (c > ' ') {
+                head.append(c);
+            } else if (head.length() > 0 && head.charAt(head.length() - 1) != ' ') {
+                head.append(' ');
+            }
+        }
+        return blockStarts.matches(head, 0);
+    }
+
+    public String getDefaultDelimiter() {
+        return dialect.getDefaultDelimiter();
+    }
+
+    public String getRedirect() {
+        return dialect.getRedirect();
+    }
+
+    public int getMaxInsertRows() {
+        return dialect.getMaxInsertRows();
+    }
+
+    public String getTypeName(int sqlType) {
+        return dialect.getTypeName(sqlType);
+    }
+
+    public String getSchemaSql(String schema) {
+        return dialect.getSchemaSql(schema);
+    }
+}
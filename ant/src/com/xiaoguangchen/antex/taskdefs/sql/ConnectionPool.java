@@ -0,0 +1,325 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Simple bounded JDBC connection pool, shared by the sqlex tasks of a build.
+ *
+ * Connections are validated when borrowed (with the validation query if one is given,
+ * otherwise by checking they are not closed); invalid connections are closed and replaced.
+ * When all connections are in use, borrowers wait until one is released, except a thread which
+ * already holds a connection of the pool: it would wait for itself, so it gets an exception at once.
+ *
+ * The pool is a {@link DataSource}: {@link #getConnection()} borrows a connection and closing the
+ * returned connection gives it back to the pool. As the pool is only seen through JDK interfaces,
+ * tasks loaded by different class loaders can share it.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ConnectionPool implements DataSource {
+
+    /**
+     * Opens new physical connections for the pool.
+     */
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int     minSize;
+    private final int     maxSize;
+    private final String  validationQuery;
+    private final long    maxWait;
+
+    private final LinkedList<Connection> idle  = new LinkedList<Connection>();
+    private final Map<Connection, Thread> inUse = new HashMap<Connection, Thread>();
+    private int      opening = 0;
+    private boolean  closed  = false;
+
+    // metrics
+    private long borrows = 0;
+    private long created = 0;
+    private long invalid = 0;
+    private long waits = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+    private int  peakInUse = 0;
+
+    /**
+     * @param factory         opens the connections
+     * @param minSize         number of connections opened up front
+     * @param maxSize         maximum number of connections, in use or idle
+     * @param validationQuery query run to validate a connection when borrowed, may be null
+     * @param maxWait         milliseconds to wait for a free connection, 0 waits forever
+     */
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize,
+                          String validationQuery, long maxWait) {
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.validationQuery = validationQuery;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Open the minimum number of connections.
+     */
+    public void fill() throws SQLException {
+        while (true) {
+            synchronized (this) {
+                if (idle.size() + inUse.size() + opening >= minSize) return;
+                opening++;
+            }
+            Connection c = null;
+            try {
+                c = factory.create();
+            } finally {
+                synchronized (this) {
+                    opening--;
+                    if (c != null) {
+                        created++;
+                        idle.add(c);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Borrow a valid connection, waiting for one to be released if the pool is exhausted.
+     */
+    private Connection borrow() throws SQLException {
+        long start = System.currentTimeMillis();
+        boolean waited = false;
+
+        while (true) {
+            Connection c = null;
+            boolean open = false;
+
+            synchronized (this) {
+                while (true) {
+                    if (closed) throw new SQLException("connection pool is closed");
+                    if (!idle.isEmpty()) {
+                        c = idle.removeFirst();
+                        break;
+                    }
+                    if (idle.size() + inUse.size() + opening < maxSize) {
+                        opening++;
+                        open = true;
+                        break;
+                    }
+
+                    if (inUse.containsValue(Thread.currentThread()))
+                        throw new SQLException("connection pool exhausted, all "
+                                               + maxSize + " connections are in use");
+
+                    long waitFor = 0;
+                    if (maxWait > 0) {
+                        waitFor = maxWait - (System.currentTimeMillis() - start);
+                        if (waitFor <= 0)
+                            throw new SQLException("timeout after " + maxWait
+                                                   + " ms waiting for a pooled connection");
+                    }
+                    waited = true;
+                    try {
+                        wait(waitFor);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("interrupted while waiting for a pooled connection");
+                    }
+                }
+            }
+
+            if (open) {
+                try {
+                    c = factory.create();
+                } finally {
+                    synchronized (this) {
+                        opening--;
+                        if (c != null) created++;
+                        notifyAll();
+                    }
+                }
+            } else if (!isValid(c)) {
+                synchronized (this) {
+                    invalid++;
+                }
+                closeQuietly(c);
+                continue;
+            }
+
+            synchronized (this) {
+                inUse.put(c, Thread.currentThread());
+                borrows++;
+                peakInUse = Math.max(peakInUse, inUse.size());
+                if (waited) {
+                    long w = System.currentTimeMillis() - start;
+                    waits++;
+                    totalWaitMillis += w;
+                    maxWaitMillis = Math.max(maxWaitMillis, w);
+                }
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Borrow a connection; closing it returns it to the pool.
+     */
+    public Connection getConnection() throws SQLException {
+        final Connection c = borrow();
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                                                   new Class<?>[] {Connection.class},
+                                                   new InvocationHandler() {
+            private boolean released = false;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    if (!released) {
+                        released = true;
+                        release(c);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name) && released) {
+                    return Boolean.TRUE;
+                }
+                if (released) {
+                    throw new SQLException("connection has been returned to the pool");
+                }
+                try {
+                    return method.invoke(c, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        });
+    }
+
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("the pool connects with its own user");
+    }
+
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    public void setLoginTimeout(int seconds) {
+    }
+
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("not a wrapper for " + iface.getName());
+    }
+
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Return a borrowed connection. Uncommitted work is rolled back.
+     */
+    private void release(Connection c) {
+        if (c == null) return;
+
+        boolean reusable = true;
+        try {
+            if (c.isClosed()) {
+                reusable = false;
+            } else {
+                if (!c.getAutoCommit()) c.rollback();
+                c.clearWarnings();
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        synchronized (this) {
+            inUse.remove(c);
+            if (reusable && !closed) {
+                idle.addFirst(c);
+                reusable = false;
+                c = null;
+            }
+            notifyAll();
+        }
+        if (c != null) closeQuietly(c);
+    }
+
+    /**
+     * Close the idle connections; connections in use are closed when released.
+     */
+    public void close() {
+        LinkedList<Connection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new LinkedList<Connection>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        for (Connection c : toClose) {
+            closeQuietly(c);
+        }
+    }
+
+    /**
+     * @return one line summary of the pool usage
+     */
+    public synchronized String getStatistics() {
+        return borrows + " borrows, " + created + " connections opened, peak "
+               + peakInUse + " in use, " + waits + " waits (total " + totalWaitMillis
+               + " ms, max " + maxWaitMillis + " ms), " + invalid + " invalid connections";
+    }
+
+    private boolean isValid(Connection c) {
+        try {
+            if (c.isClosed()) return false;
+            if (validationQuery != null && validationQuery.length() > 0) {
+                Statement s = c.createStatement();
+                try {
+                    s.execute(validationQuery);
+                } finally {
+                    s.close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ignore) {
+            // ignore
+        }
+    }
+}
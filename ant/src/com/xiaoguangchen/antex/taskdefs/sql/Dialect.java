@@ -0,0 +1,63 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+/**
+ * Database vendor behaviour of the sqlex task: how scripts written for the vendor's own command line
+ * tool are read, and what the vendor supports when sqlex writes statements itself.
+ *
+ * Implementations are compiled once into a {@link CompiledDialect} by the {@link DialectRegistry},
+ * so the methods are not called while statements are parsed. A custom dialect is registered with
+ * {@link DialectRegistry#register}, or named by class in the <i>dialect</i> attribute of sqlex;
+ * it needs a public no argument constructor then.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public interface Dialect {
+
+    /**
+     * @return name of the dialect, for example "oracle"
+     */
+    String getName();
+
+    /**
+     * @return true if connections of the jdbc url are to this database
+     */
+    boolean accepts(String url);
+
+    /**
+     * @return symbols starting comment lines of the vendor's command line tool, in addition to
+     *         --, REM and //; matched case insensitively
+     */
+    String[] getCommentSymbols();
+
+    /**
+     * @return statement delimiter used when none is set, or null
+     */
+    String getDefaultDelimiter();
+
+    /**
+     * @return symbol starting a line which includes another script file, or null
+     */
+    String getRedirect();
+
+    /**
+     * @return upper cased, single spaced statement prefixes of blocks (stored procedures, triggers)
+     *         which contain statement delimiters and end with the outer delimiter
+     */
+    String[] getBlockStarts();
+
+    /**
+     * @return maximum number of rows of a multi-row INSERT, 0 if not supported
+     */
+    int getMaxInsertRows();
+
+    /**
+     * @param sqlType one of java.sql.Types VARCHAR, BIGINT, SMALLINT and TIMESTAMP
+     * @return the column type name of the vendor
+     */
+    String getTypeName(int sqlType);
+
+    /**
+     * @return statement making the schema (or database) the default of the connection
+     */
+    String getSchemaSql(String schema);
+}
@@ -0,0 +1,174 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dialects known to the sqlex task, and their compiled tables cached by jdbc url and by name.
+ *
+ * Built in are Oracle, SQL Server, DB2, MySQL (and MariaDB), PostgreSQL and H2. Only Oracle, SQL Server
+ * and DB2 are taken from the jdbc url, from the urls the vendor was detected from before dialects
+ * (jdbc:oracle, jdbc:microsoft:sqlserver, jdbc:db2); the others change how scripts are read (default
+ * delimiter, comment symbols, redirect) and are only used when asked for by name, as is SQL Server for the
+ * jdbc:sqlserver and jTDS urls. Urls of other databases get the generic dialect. Registered dialects are
+ * looked at before the built-in ones.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class DialectRegistry {
+
+    private static final String[] NONE = new String[0];
+
+    public static final Dialect GENERIC =
+            new BasicDialect("generic", NONE, NONE, null, null, NONE, Integer.MAX_VALUE);
+
+    public static final Dialect ORACLE =
+            new BasicDialect("oracle", new String[] {"jdbc:oracle"},
+                             new String[] {"show errors", ".", "PROMPT"}, ";", "@",
+                             new String[] {"CREATE PACKAGE", "CREATE TYPE"}, 0)
+                    .setTypeName(Types.VARCHAR, "VARCHAR2")
+                    .setTypeName(Types.BIGINT, "NUMBER(19)")
+                    .setTypeName(Types.SMALLINT, "NUMBER(1)")
+                    .setSchemaSql("ALTER SESSION SET CURRENT_SCHEMA = {schema}");
+
+    public static final Dialect SQLSERVER =
+            new BasicDialect("sqlserver",
+                             new String[] {"jdbc:microsoft:sqlserver"},
+                             new String[] {"echo", "rem", "!!echo", "!! echo"}, "GO", "osql -i",
+                             new String[] {"CREATE OR ALTER", "CREATE PROC"}, 1000)
+                    .setTypeName(Types.TIMESTAMP, "DATETIME")
+                    .setSchemaSql("USE {schema}");
+
+    public static final Dialect DB2 =
+            new BasicDialect("db2", new String[] {"jdbc:db2"},
+                             new String[] {"echo", "@echo", "!echo", "! echo"}, "@", "db2 -stf",
+                             NONE, Integer.MAX_VALUE);
+
+    public static final Dialect MYSQL =
+            new BasicDialect("mysql", new String[] {"jdbc:mysql", "jdbc:mariadb"},
+                             new String[] {"#"}, ";", null,
+                             new String[] {"CREATE DEFINER", "CREATE EVENT"}, Integer.MAX_VALUE)
+                    .setTypeName(Types.TIMESTAMP, "DATETIME")
+                    .setSchemaSql("USE {schema}");
+
+    public static final Dialect POSTGRESQL =
+            new BasicDialect("postgresql", new String[] {"jdbc:postgresql", "jdbc:pgsql"},
+                             NONE, ";", "\\i ", NONE, Integer.MAX_VALUE)
+                    .setSchemaSql("SET search_path TO {schema}");
+
+    public static final Dialect H2 =
+            new BasicDialect("h2", new String[] {"jdbc:h2"},
+                             NONE, ";", null, new String[] {"CREATE ALIAS"}, Integer.MAX_VALUE);
+
+    private static final Dialect[] BUILT_IN = new Dialect[] {ORACLE, SQLSERVER, DB2, MYSQL, POSTGRESQL, H2};
+
+    // built-in dialects taken from the jdbc url
+    private static final Dialect[] BY_URL = new Dialect[] {ORACLE, SQLSERVER, DB2};
+
+    private static final List<Dialect> registered = new CopyOnWriteArrayList<Dialect>();
+
+    private static final ConcurrentMap<String, CompiledDialect> byUrl =
+            new ConcurrentHashMap<String, CompiledDialect>();
+    private static final ConcurrentMap<String, CompiledDialect> byName =
+            new ConcurrentHashMap<String, CompiledDialect>();
+    private static final ConcurrentMap<String, CompiledDialect> byClass =
+            new ConcurrentHashMap<String, CompiledDialect>();
+
+    private DialectRegistry() {
+    }
+
+    /**
+     * Register a dialect, replacing a registered dialect of the same name.
+     */
+    public static void register(Dialect dialect) {
+        for (Dialect d : registered) {
+            if (d.getName().equalsIgnoreCase(dialect.getName())) registered.remove(d);
+        }
+        registered.add(0, dialect);
+        byUrl.clear();
+        byName.clear();
+    }
+
+    /**
+     * @return the compiled dialect of the jdbc url, the generic dialect if no registered dialect nor
+     *         Oracle, SQL Server or DB2 accepts it
+     */
+    public static CompiledDialect forUrl(String url) {
+        String key = url.trim();
+        CompiledDialect compiled = byUrl.get(key);
+        if (compiled == null) {
+            compiled = getCompiled(find(key));
+            byUrl.putIfAbsent(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the compiled dialect of a registered or built-in name, or null
+     */
+    public static CompiledDialect forName(String name) {
+        CompiledDialect compiled = byName.get(name.toLowerCase());
+        if (compiled != null) return compiled;
+
+        for (Dialect d : registered) {
+            if (d.getName().equalsIgnoreCase(name)) return getCompiled(d);
+        }
+        for (Dialect d : BUILT_IN) {
+            if (d.getName().equalsIgnoreCase(name)) return getCompiled(d);
+        }
+        return GENERIC.getName().equalsIgnoreCase(name) ? getCompiled(GENERIC) : null;
+    }
+
+    /**
+     * @param name   name of a registered or built-in dialect, or class name of a dialect
+     * @param loader class loader of the dialect class
+     * @return the compiled dialect
+     * @throws IllegalArgumentException if the name is not a dialect
+     */
+    public static CompiledDialect forName(String name, ClassLoader loader) {
+        CompiledDialect compiled = forName(name);
+        if (compiled != null) return compiled;
+
+        compiled = byClass.get(name);
+        if (compiled == null) {
+            Object dialect;
+            try {
+                dialect = Class.forName(name, true, loader).getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("unknown dialect " + name);
+            } catch (Exception e) {
+                // no public default constructor, or the constructor failed
+                throw new IllegalArgumentException("cannot create dialect " + name + ": " + e);
+            }
+            if (!(dialect instanceof Dialect)) {
+                throw new IllegalArgumentException(name + " does not implement " + Dialect.class.getName());
+            }
+            compiled = new CompiledDialect((Dialect) dialect);
+            byClass.putIfAbsent(name, compiled);
+        }
+        return compiled;
+    }
+
+    private static Dialect find(String url) {
+        for (Dialect d : registered) {
+            if (d.accepts(url)) return d;
+        }
+        for (Dialect d : BY_URL) {
+            if (d.accepts(url)) return d;
+        }
+        return GENERIC;
+    }
+
+    private static CompiledDialect getCompiled(Dialect dialect) {
+        String key = dialect.getName().toLowerCase();
+        CompiledDialect compiled = byName.get(key);
+        if (compiled == null || compiled.getDialect() != dialect) {
+            compiled = new CompiledDialect(dialect);
+            byName.put(key, compiled);
+        }
+        return compiled;
+    }
+}
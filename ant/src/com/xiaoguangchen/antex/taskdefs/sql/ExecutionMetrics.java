@@ -0,0 +1,306 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live counters of a running sqlex task: statements executed and failed, rows affected, characters parsed,
+ * current file, commits and statement rate.
+ *
+ * The counters are read from the task when asked for, so keeping them costs the task nothing but the count of
+ * parsed characters. A sampler thread computes the statement rate every interval and, if a metrics file is
+ * given, writes the counters to it in the Prometheus text format, so a node exporter textfile collector
+ * can pick them up. The file is written to a temporary file first and then renamed, and written a last time
+ * when the task finishes. The counters can also be registered as a JMX MBean,
+ * <code>com.xiaoguangchen.antex:type=SQLEx,name=...</code>.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ExecutionMetrics implements ExecutionMetricsMBean {
+
+    /**
+     * Counters kept by the task.
+     */
+    public interface Counters {
+        /**
+         * @return statements executed, successfully or not
+         */
+        long getStatements();
+
+        long getSucceeded();
+
+        long getRows();
+
+        long getCommits();
+    }
+
+    private final String   name;
+    private final Counters counters;
+    // counters of previous executions of the task
+    private final long     baseStatements;
+    private final long     baseSucceeded;
+    private final long     baseRows;
+    private final long     baseCommits;
+    private final long     startNanos = System.nanoTime();
+
+    private final AtomicLong  parsedChars = new AtomicLong();
+    private volatile String   currentFile = null;
+    private volatile boolean  running = true;
+
+    // last sample
+    private long            lastSampleNanos = startNanos;
+    private long            lastSampleCount = 0;
+    private long            lastProgressNanos = startNanos;
+    private volatile double rate = 0;
+    private volatile long   secondsSinceProgress = 0;
+
+    private File                     file = null;
+    private ScheduledExecutorService sampler = null;
+    private ObjectName               objectName = null;
+    private volatile IOException     writeError = null;
+
+    /**
+     * @param name     name of the task, used as label and MBean name
+     * @param counters counters kept by the task
+     */
+    public ExecutionMetrics(String name, Counters counters) {
+        this.name = name;
+        this.counters = counters;
+        this.baseStatements = counters.getStatements();
+        this.baseSucceeded = counters.getSucceeded();
+        this.baseRows = counters.getRows();
+        this.baseCommits = counters.getCommits();
+    }
+
+    /**
+     * Start sampling.
+     *
+     * @param file            file to write the counters to, null to only sample the rate
+     * @param intervalSeconds seconds between samples
+     */
+    public synchronized void start(File file, int intervalSeconds) {
+        this.file = file;
+        long interval = Math.max(1, intervalSeconds);
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sqlex-metrics");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        sample();
+    }
+
+    /**
+     * Register the counters with the platform MBean server, under the name of the task,
+     * made unique with a number if needed.
+     */
+    public synchronized void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int i = 1; ; i++) {
+            String n = (i == 1) ? name : name + " #" + i;
+            ObjectName on = new ObjectName("com.xiaoguangchen.antex:type=SQLEx,name=" + ObjectName.quote(n));
+            try {
+                server.registerMBean(this, on);
+                objectName = on;
+                return;
+            } catch (InstanceAlreadyExistsException e) {
+                // another task of the same name is running
+            }
+        }
+    }
+
+    /**
+     * Stop sampling, write the file a last time and unregister the MBean.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (sampler != null) {
+            sampler.shutdownNow();
+            try {
+                sampler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+            sample();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignore) {
+                // already gone
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return the last error writing the metrics file, or null
+     */
+    public IOException getWriteError() {
+        return writeError;
+    }
+
+    /**
+     * Count the characters of a parsed line, without its terminator.
+     */
+    public void parsed(int lineLength) {
+        parsedChars.addAndGet(lineLength + 1);
+    }
+
+    public void setCurrentFile(String currentFile) {
+        this.currentFile = currentFile;
+    }
+
+    public long getStatementsExecuted() {
+        return counters.getSucceeded() - baseSucceeded;
+    }
+
+    public long getStatementsFailed() {
+        return Math.max(0, (counters.getStatements() - baseStatements) - getStatementsExecuted());
+    }
+
+    public long getRowsAffected() {
+        return counters.getRows() - baseRows;
+    }
+
+    public long getCharactersParsed() {
+        return parsedChars.get();
+    }
+
+    public String getCurrentFile() {
+        return currentFile;
+    }
+
+    public long getCommits() {
+        return counters.getCommits() - baseCommits;
+    }
+
+    public double getStatementRate() {
+        return rate;
+    }
+
+    public double getAverageStatementRate() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return (seconds > 0) ? (counters.getStatements() - baseStatements) / seconds : 0;
+    }
+
+    public long getSecondsSinceProgress() {
+        return secondsSinceProgress;
+    }
+
+    public long getElapsedSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        long count = counters.getStatements() - baseStatements;
+        if (now > lastSampleNanos) {
+            rate = (count - lastSampleCount) * 1e9 / (now - lastSampleNanos);
+        }
+        if (count != lastSampleCount) {
+            lastProgressNanos = now;
+        }
+        secondsSinceProgress = TimeUnit.NANOSECONDS.toSeconds(now - lastProgressNanos);
+        lastSampleNanos = now;
+        lastSampleCount = count;
+
+        if (file != null) {
+            try {
+                write();
+                writeError = null;
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        String task = "{task=\"" + escape(name) + "\"}";
+        StringBuilder sb = new StringBuilder();
+        metric(sb, "sqlex_statements_total", "counter", "Statements executed successfully.",
+               task, getStatementsExecuted());
+        metric(sb, "sqlex_statements_failed_total", "counter", "Statements which failed.",
+               task, getStatementsFailed());
+        metric(sb, "sqlex_rows_affected_total", "counter", "Rows affected by the statements.",
+               task, getRowsAffected());
+        metric(sb, "sqlex_parsed_characters_total", "counter", "Characters of the script lines parsed.",
+               task, getCharactersParsed());
+        metric(sb, "sqlex_commits_total", "counter", "Commits.", task, getCommits());
+        metric(sb, "sqlex_statement_rate", "gauge", "Statements per second over the last interval.",
+               task, rate);
+        metric(sb, "sqlex_seconds_since_progress", "gauge", "Seconds since the last statement was counted.",
+               task, secondsSinceProgress);
+        metric(sb, "sqlex_elapsed_seconds", "gauge", "Seconds since the task started.", task, getElapsedSeconds());
+        metric(sb, "sqlex_running", "gauge", "1 while the task is running.", task, running ? 1 : 0);
+        String current = currentFile;
+        if (current != null) {
+            metric(sb, "sqlex_current_file", "gauge", "Script file most recently started.",
+                   "{task=\"" + escape(name) + "\",file=\"" + escape(current) + "\"}", 1);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            w.write(sb.toString());
+        } finally {
+            w.close();
+        }
+        // rename over an existing file is not atomic everywhere, delete first where it fails
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("cannot write metrics file " + file);
+        }
+    }
+
+    private static void metric(StringBuilder sb, String metric, String type, String help,
+                               String labels, double value) {
+        sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+        sb.append(metric).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"':  sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                default:   sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+/**
+ * Live counters of a running sqlex task, as seen through JMX.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public interface ExecutionMetricsMBean {
+
+    /**
+     * @return statements executed successfully
+     */
+    long getStatementsExecuted();
+
+    /**
+     * @return statements which failed
+     */
+    long getStatementsFailed();
+
+    long getRowsAffected();
+
+    /**
+     * @return characters of the script lines parsed, including line terminators
+     */
+    long getCharactersParsed();
+
+    /**
+     * @return the script file most recently started, or null
+     */
+    String getCurrentFile();
+
+    long getCommits();
+
+    /**
+     * @return statements per second over the last sampling interval
+     */
+    double getStatementRate();
+
+    /**
+     * @return statements per second since the start of the task
+     */
+    double getAverageStatementRate();
+
+    /**
+     * @return seconds since the number of statements last changed, as of the last sample
+     */
+    long getSecondsSinceProgress();
+
+    long getElapsedSeconds();
+
+    /**
+     * @return false once the task is finished
+     */
+    boolean isRunning();
+}
@@ -0,0 +1,147 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a script executed against several databases or schemas (the targets of a fan-out):
+ * one row per target with its outcome, statement counts and timings. Rows are filled concurrently,
+ * each by the thread executing its target.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class FanOutMatrix {
+
+    /**
+     * One target: a jdbc url, optionally with a schema to use on it.
+     */
+    public static class Target {
+        private final String         url;
+        private final String         schema;
+        private final String         name;
+        private final StatementStats stats = new StatementStats(0);
+
+        private volatile long   nanos = 0;
+        private volatile String failure = null;
+        private volatile boolean done = false;
+
+        Target(String url, String schema, String name) {
+            this.url = url;
+            this.schema = schema;
+            this.name = name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return schema to use, or null
+         */
+        public String getSchema() {
+            return schema;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return statistics of the statements executed on the target
+         */
+        public StatementStats getStats() {
+            return stats;
+        }
+
+        /**
+         * @param nanos   time from the connection to the last commit
+         * @param failure the error which stopped the target, null if it ran to the end
+         */
+        public void finished(long nanos, String failure) {
+            this.nanos = nanos;
+            this.failure = failure;
+            this.done = true;
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return ok, failed (stopped by an error) or skipped (never started)
+         */
+        public String getStatus() {
+            if (!done) return "skipped";
+            return (failure == null) ? "ok" : "failed";
+        }
+    }
+
+    private final List<Target> targets = new ArrayList<Target>();
+
+    /**
+     * Add a target.
+     *
+     * @param url    jdbc url
+     * @param schema schema to use, or null
+     * @param name   name shown in the matrix
+     */
+    public Target add(String url, String schema, String name) {
+        Target t = new Target(url, schema, name);
+        targets.add(t);
+        return t;
+    }
+
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * @return the targets which did not run to the end
+     */
+    public List<Target> getFailed() {
+        List<Target> failed = new ArrayList<Target>();
+        for (Target t : targets) {
+            if (!"ok".equals(t.getStatus())) failed.add(t);
+        }
+        return failed;
+    }
+
+    /**
+     * @return the matrix as a table: one line per target with status, statements, failed statements,
+     *         rows affected, commits, total time and statement latency
+     */
+    public String format() {
+        int width = "target".length();
+        for (Target t : targets) {
+            width = Math.max(width, t.name.length());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        pad(sb, "target", width, false);
+        sb.append("  status   statements  failed        rows  commits         ms    p50 ms    p95 ms    max ms");
+        for (Target t : targets) {
+            StatementStats s = t.stats;
+            sb.append('\n');
+            pad(sb, t.name, width, false);
+            sb.append("  ");
+            pad(sb, t.getStatus(), 7, false);
+            pad(sb, String.valueOf(s.getCount()), 12, true);
+            pad(sb, String.valueOf(s.getFailures()), 8, true);
+            pad(sb, String.valueOf(s.getRows()), 12, true);
+            pad(sb, String.valueOf(s.getCommits()), 9, true);
+            pad(sb, StatementStats.millis(t.nanos), 11, true);
+            pad(sb, StatementStats.millis(s.getPercentile(50)), 10, true);
+            pad(sb, StatementStats.millis(s.getPercentile(95)), 10, true);
+            pad(sb, StatementStats.millis(s.getPercentile(100)), 10, true);
+            if (t.failure != null) sb.append("  ").append(t.failure);
+        }
+        return sb.toString();
+    }
+
+    private static void pad(StringBuilder sb, String value, int width, boolean right) {
+        if (!right) sb.append(value);
+        for (int i = value.length(); i < width; i++) sb.append(' ');
+        if (right) sb.append(value);
+    }
+}
@@ -0,0 +1,197 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed include (redirect) files of one task, and the include graph.
+ *
+ * A parsed file is kept as its list of statements and nested includes, so repeated includes are
+ * replayed without reading and parsing the file again. Entries are keyed by canonical path and
+ * parse settings, and are valid only while the modification time and size of the file are unchanged.
+ * Files are no longer cached once the cached statements reach {@link #MAX_CACHED_CHARS} characters.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class IncludeCache {
+
+    /** size limit of the cached statements, in characters */
+    public static final long MAX_CACHED_CHARS = 16L * 1024 * 1024;
+
+    /**
+     * Statements and include directives of a parsed file, in script order.
+     */
+    public static class Script {
+        private final List<String> texts = new ArrayList<String>();
+        private int[]     lines    = new int[16];
+        private boolean[] includes = new boolean[16];
+        private long      chars;
+
+        public void addStatement(String sql, int line) {
+            add(sql, line, false);
+        }
+
+        /**
+         * @param target the include directive, without the redirect symbol
+         */
+        public void addInclude(String target) {
+            add(target, 0, true);
+        }
+
+        private void add(String text, int line, boolean include) {
+            int i = texts.size();
+            if (i == lines.length) {
+                int[] l = new int[i * 2];
+                System.arraycopy(lines, 0, l, 0, i);
+                lines = l;
+                boolean[] b = new boolean[i * 2];
+                System.arraycopy(includes, 0, b, 0, i);
+                includes = b;
+            }
+            texts.add(text);
+            lines[i] = line;
+            includes[i] = include;
+            chars += text.length();
+        }
+
+        public int size() {
+            return texts.size();
+        }
+
+        public String getText(int i) {
+            return texts.get(i);
+        }
+
+        public int getLine(int i) {
+            return lines[i];
+        }
+
+        public boolean isInclude(int i) {
+            return includes[i];
+        }
+    }
+
+    private static class Entry {
+        final long   lastModified;
+        final long   length;
+        final Script script;
+
+        Entry(long lastModified, long length, Script script) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.script = script;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    // including file -> included file -> number of includes
+    private final Map<String, Map<String, Integer>> graph = new LinkedHashMap<String, Map<String, Integer>>();
+    private long chars;
+    private int  includes;
+    private int  hits;
+    private int  misses;
+
+    /**
+     * @param key  canonical path of the file and the parse settings
+     * @param file the file, checked for changes
+     * @return the parsed file, or null if not cached or changed since
+     */
+    public synchronized Script get(String key, File file) {
+        Entry e = entries.get(key);
+        if (e != null && e.lastModified == file.lastModified() && e.length == file.length()) {
+            hits++;
+            return e.script;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @param lastModified modification time of the file before it was parsed
+     * @param length       size of the file before it was parsed
+     */
+    public synchronized void put(String key, long lastModified, long length, Script script) {
+        Entry old = entries.get(key);
+        long size = chars + script.chars - ((old == null) ? 0 : old.script.chars);
+        if (size > MAX_CACHED_CHARS) return;
+
+        entries.put(key, new Entry(lastModified, length, script));
+        chars = size;
+    }
+
+    /**
+     * Record an include in the include graph.
+     */
+    public synchronized void addInclude(String from, String to) {
+        Map<String, Integer> targets = graph.get(from);
+        if (targets == null) {
+            targets = new LinkedHashMap<String, Integer>();
+            graph.put(from, targets);
+        }
+        Integer count = targets.get(to);
+        targets.put(to, Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+        includes++;
+    }
+
+    public synchronized int getIncludeCount() {
+        return includes;
+    }
+
+    public synchronized String getStatistics() {
+        return includes + " includes, " + hits + " replayed from cache, " + misses + " parsed, "
+               + entries.size() + " files cached (" + chars + " chars)";
+    }
+
+    /**
+     * @return one line per including file, listing the included files and the number of includes
+     */
+    public synchronized String getGraph() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, Integer>> e : graph.entrySet()) {
+            sb.append(e.getKey()).append(" ->");
+            for (Map.Entry<String, Integer> t : e.getValue().entrySet()) {
+                sb.append(' ').append(t.getKey()).append(" (").append(t.getValue()).append(')');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the include graph in graphviz dot format, edges labelled with the number of includes.
+     */
+    public synchronized void writeGraph(File file) throws IOException {
+        PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            w.println("digraph includes {");
+            for (Map.Entry<String, Map<String, Integer>> e : graph.entrySet()) {
+                for (Map.Entry<String, Integer> t : e.getValue().entrySet()) {
+                    w.println("  " + quote(e.getKey()) + " -> " + quote(t.getKey())
+                              + " [label=\"" + t.getValue() + "\"];");
+                }
+            }
+            w.println("}");
+        } finally {
+            w.close();
+        }
+        if (w.checkError()) throw new IOException("error writing " + file);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,223 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges runs of single row INSERT statements into one multi-row INSERT.
+ *
+ * Only statements of the form <code>INSERT INTO table [(columns)] VALUES (values)</code>, with nothing
+ * after the values, are merged; a run ends at the first statement into another table or with another
+ * column list (compared ignoring case and white spaces), or when the row or size limit is reached.
+ * Statements with comments are left alone.
+ * The original statements and their locations are kept, so a failed merged statement can be executed
+ * again one statement at a time.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class InsertCoalescer {
+
+    private final int maxRows;
+    private final int maxChars;
+
+    // pending run: normalized header, merged statement and the original statements
+    private String        header   = null;
+    private StringBuilder merged   = new StringBuilder();
+    private List<String>  sqls     = new ArrayList<String>();
+    private List<String>  sources  = new ArrayList<String>();
+    private int[]         lines    = new int[16];
+
+    /**
+     * @param maxRows  maximum number of rows of a merged statement
+     * @param maxChars maximum length of a merged statement; a single row is always accepted
+     */
+    public InsertCoalescer(int maxRows, int maxChars) {
+        this.maxRows = maxRows;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @return index of the opening parenthesis of the values of a single row INSERT, or -1
+     */
+    public static int getValuesStart(String sql) {
+        int i = skipWhiteSpaces(sql, 0);
+        if (!keywordAt(sql, i, "INSERT")) return -1;
+        i = skipWhiteSpaces(sql, i + 6);
+        if (!keywordAt(sql, i, "INTO")) return -1;
+        i = skipWhiteSpaces(sql, i + 4);
+
+        // table name, possibly qualified and quoted
+        int nameStart = i;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '"' || c == '`' || c == '[') {
+                int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+                if (end < 0) return -1;
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i == nameStart) return -1;
+        i = skipWhiteSpaces(sql, i);
+
+        // column list
+        if (i < sql.length() && sql.charAt(i) == '(') {
+            i = skipParentheses(sql, i);
+            if (i < 0) return -1;
+            i = skipWhiteSpaces(sql, i);
+        }
+
+        if (!keywordAt(sql, i, "VALUES")) return -1;
+        int valuesStart = skipWhiteSpaces(sql, i + 6);
+        if (valuesStart >= sql.length() || sql.charAt(valuesStart) != '(') return -1;
+
+        // exactly one row, and nothing after it
+        int end = skipParentheses(sql, valuesStart);
+        if (end < 0 || skipWhiteSpaces(sql, end) != sql.length()) return -1;
+        return valuesStart;
+    }
+
+    /**
+     * Add the statement to the pending run if it is a single row INSERT of that run, or if no run is
+     * pending.
+     *
+     * @return false if the statement is not a single row INSERT or does not belong to the pending run,
+     *         in which case the pending run must be executed first (or the statement on its own)
+     */
+    public boolean add(String sql, String source, int line) {
+        int valuesStart = getValuesStart(sql);
+        if (valuesStart < 0) return false;
+
+        String h = normalize(sql, valuesStart);
+        int rowLength = sql.length() - valuesStart;
+        if (header == null) {
+            header = h;
+            merged.append(sql);
+        } else if (header.equals(h) && !isFull() && merged.length() + 2 + rowLength <= maxChars) {
+            merged.append(",\n").append(sql, valuesStart, sql.length());
+        } else {
+            return false;
+        }
+
+        int i = sqls.size();
+        if (i == lines.length) {
+            int[] l = new int[i * 2];
+            System.arraycopy(lines, 0, l, 0, i);
+            lines = l;
+        }
+        sqls.add(sql);
+        sources.add(source);
+        lines[i] = line;
+        return true;
+    }
+
+    /**
+     * @return true if no row can be added to the pending run
+     */
+    public boolean isFull() {
+        return sqls.size() >= maxRows || merged.length() >= maxChars;
+    }
+
+    /**
+     * @return number of pending statements
+     */
+    public int size() {
+        return sqls.size();
+    }
+
+    /**
+     * @return the pending statements merged into one
+     */
+    public String getStatement() {
+        return (sqls.size() == 1) ? sqls.get(0) : merged.toString();
+    }
+
+    public String getSql(int i) {
+        return sqls.get(i);
+    }
+
+    public String getSource(int i) {
+        return sources.get(i);
+    }
+
+    public int getLine(int i) {
+        return lines[i];
+    }
+
+    /**
+     * Forget the pending run.
+     */
+    public void clear() {
+        header = null;
+        merged.setLength(0);
+        sqls.clear();
+        sources.clear();
+    }
+
+    /**
+     * @return the statement up to end with white spaces collapsed, upper cased outside quoted identifiers
+     */
+    private static String normalize(String sql, int end) {
+        StringBuilder sb = new StringBuilder(end);
+        boolean space = false;
+        char quote = 0;
+        for (int i = 0; i < end; i++) {
+            char c = sql.charAt(i);
+            if (c <= ' ' && quote == 0) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) sb.append(' ');
+            space = false;
+
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                sb.append(c);
+            } else {
+                if (c == '"' || c == '`') quote = c;
+                else if (c == '[') quote = ']';
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return index after the parenthesis closing the one at start, skipping literals, or -1;
+     *         also -1 if there is a comment in between
+     */
+    private static int skipParentheses(String sql, int start) {
+        int depth = 0;
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                // doubled quotes are two consecutive literals
+                if (end < 0) return -1;
+                i = end;
+            } else if ((c == '-' || c == '/') && i + 1 < sql.length()
+                       && sql.charAt(i + 1) == (c == '-' ? '-' : '*')) {
+                return -1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean keywordAt(String sql, int i, String keyword) {
+        int end = i + keyword.length();
+        return sql.regionMatches(true, i, keyword, 0, keyword.length())
+               && (end == sql.length() || !Character.isLetterOrDigit(sql.charAt(end)));
+    }
+
+    private static int skipWhiteSpaces(String sql, int i) {
+        while (i < sql.length() && sql.charAt(i) <= ' ') i++;
+        return i;
+    }
+}
@@ -0,0 +1,24 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.IOException;
+
+/**
+ * Source of the lines of a SQL script.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public interface LineSource {
+
+    /**
+     * @return the next line without line terminator, or null at the end of the script.
+     *         The returned characters are only valid until the next call.
+     */
+    CharSequence readLine() throws IOException;
+
+    /**
+     * @return byte offset in the file of the next line, or -1 if not known
+     */
+    long getOffset() throws IOException;
+
+    void close() throws IOException;
+}
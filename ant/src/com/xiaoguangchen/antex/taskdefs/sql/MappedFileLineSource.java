@@ -0,0 +1,211 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Lines of a script file read through memory mapped windows of the file.
+ *
+ * The file is mapped window by window (so files larger than 2 GB can be read), decoded with one
+ * decoder into one reusable char buffer, and lines are handed out as views on that buffer; only a
+ * line crossing the end of the decoded buffer is copied.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class MappedFileLineSource implements LineSource {
+
+    public static final int   DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int  CHAR_BUFFER_SIZE    = 64 * 1024;
+    // a window must be able to hold a whole character of any charset
+    private static final int  MIN_WINDOW_SIZE     = 16;
+
+    private final FileInputStream  stream;
+    private final FileChannel      channel;
+    private final long             size;
+    private final int              windowSize;
+    private final CharsetDecoder   decoder;
+
+    private ByteBuffer  window = null;
+    private long        windowStart = 0;
+    private boolean     endOfInput = false;
+    private boolean     flushed = false;
+
+    private final CharBuffer    chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final char[]        buf = chars.array();
+    private int                 pos = 0;
+    private int                 limit = 0;
+    private boolean             skipLineFeed = false;
+
+    private final StringBuilder carry = new StringBuilder();
+    private final LineView      view = new LineView();
+
+    /**
+     * @param file     script file
+     * @param encoding charset name, null for the platform default
+     */
+    public MappedFileLineSource(File file, String encoding) throws IOException {
+        this(file, encoding, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize bytes mapped at a time, at least 16
+     */
+    public MappedFileLineSource(File file, String encoding, int windowSize) throws IOException {
+        Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+        this.decoder = charset.newDecoder()
+                              .onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.stream = new FileInputStream(file);
+        this.channel = stream.getChannel();
+        this.size = channel.size();
+        this.windowSize = Math.max(windowSize, MIN_WINDOW_SIZE);
+    }
+
+    public CharSequence readLine() throws IOException {
+        carry.setLength(0);
+        boolean carried = false;
+
+        while (true) {
+            if (pos >= limit) {
+                if (!fill()) {
+                    return carried ? carry : null;
+                }
+            }
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buf[pos] == '\n') {
+                    pos++;
+                    continue;
+                }
+            }
+
+            int start = pos;
+            for (int i = start; i < limit; i++) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    pos = i + 1;
+                    skipLineFeed = (c == '\r');
+                    if (carried) {
+                        carry.append(buf, start, i - start);
+                        return carry;
+                    }
+                    return view.set(start, i);
+                }
+            }
+
+            // the line continues in the next decoded chunk
+            carry.append(buf, start, limit - start);
+            carried = true;
+            pos = limit;
+        }
+    }
+
+    /**
+     * Lines are decoded ahead, their offsets are not known.
+     */
+    public long getOffset() {
+        return -1;
+    }
+
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        stream.close();
+    }
+
+    /**
+     * Decode the next chunk of characters.
+     *
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        chars.clear();
+
+        while (chars.hasRemaining()) {
+            if (endOfInput) {
+                if (!flushed) {
+                    CoderResult r = decoder.decode(window, chars, true);
+                    if (r.isOverflow()) break;
+                    r = decoder.flush(chars);
+                    if (r.isOverflow()) break;
+                    flushed = true;
+                }
+                break;
+            }
+
+            if (window == null || !window.hasRemaining()) {
+                if (!map()) continue;
+            }
+
+            CoderResult r = decoder.decode(window, chars, false);
+            if (r.isOverflow()) break;
+            if (r.isUnderflow() && window.hasRemaining()) {
+                // a character is split by the end of the window, map again from its first byte
+                if (!map()) continue;
+            }
+        }
+
+        chars.flip();
+        pos = 0;
+        limit = chars.limit();
+        return limit > 0;
+    }
+
+    /**
+     * Map the window starting at the first byte not decoded yet.
+     *
+     * @return false if the end of the file is reached
+     */
+    private boolean map() throws IOException {
+        long next = (window == null) ? 0 : windowStart + window.position();
+        if (next >= size || (window != null && windowStart + window.limit() >= size)) {
+            endOfInput = true;
+            if (window == null) window = ByteBuffer.allocate(0);
+            return false;
+        }
+
+        windowStart = next;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                             Math.min((long) windowSize, size - windowStart));
+        return true;
+    }
+
+    /**
+     * A line as a view on the decoded characters.
+     */
+    private class LineView implements CharSequence {
+        private int start;
+        private int end;
+
+        LineView set(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return buf[start + index];
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new String(buf, start + from, to - from);
+        }
+
+        public String toString() {
+            return new String(buf, start, end - start);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xiaoguangchen.antex.utils.SubstituteFormat;
+
+/**
+ * Replaces <code>${name}</code> properties, and optionally <code>@name@</code> tokens
+ * ({@link SubstituteFormat#TOKEN_FORMAT}), in the lines of a script.
+ *
+ * A line without a marker is returned as it is after one scan. The value of each name is looked up
+ * once and cached, so the property lookup of Ant runs once per name instead of once per line; the
+ * properties of a build cannot change while a task runs. As in Ant, undefined properties and tokens are
+ * left as they are, values are not expanded again, and <code>$$</code> stands for <code>$</code> in
+ * lines which contain a property. A token name is made of letters, digits, '.', '_' and '-', so an
+ * address such as <code>user@host</code> is never taken for a token.
+ *
+ * Thread safe.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class PropertySubstitutor {
+
+    /**
+     * Source of the values.
+     */
+    public interface Resolver {
+        /**
+         * @return the value of the property, or null if it is not defined
+         */
+        String getProperty(String name);
+    }
+
+    // cached for undefined names, the map does not take null values
+    private static final String UNDEFINED = new String("undefined");
+
+    private final Resolver resolver;
+    private final String   propertyStart;
+    private final String   propertyEnd;
+    private final String   tokenStart;
+    private final String   tokenEnd;
+
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong expandedLines = new AtomicLong();
+    private final AtomicLong substitutions = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * @param resolver source of the values
+     * @param tokens   true to replace <code>@name@</code> tokens as well
+     */
+    public PropertySubstitutor(Resolver resolver, boolean tokens) {
+        this.resolver = resolver;
+        this.propertyStart = SubstituteFormat.ANT_FORMAT.getStarts();
+        this.propertyEnd = SubstituteFormat.ANT_FORMAT.getEnds();
+        this.tokenStart = tokens ? SubstituteFormat.TOKEN_FORMAT.getStarts() : null;
+        this.tokenEnd = SubstituteFormat.TOKEN_FORMAT.getEnds();
+    }
+
+    /**
+     * @return the line with its properties and tokens replaced, the line itself if it has none
+     */
+    public CharSequence substitute(CharSequence line) {
+        lines.incrementAndGet();
+
+        int marker = findMarker(line);
+        if (marker < 0) return line;
+
+        long start = System.nanoTime();
+        boolean properties = hasProperty(line, marker);
+        int n = line.length();
+        // a $$ escape may come before the first marker
+        int i = properties ? 0 : marker;
+        StringBuilder sb = new StringBuilder(n + 32);
+        sb.append(line, 0, i);
+        int count = 0;
+
+        while (i < n) {
+            char c = line.charAt(i);
+            if (properties && c == '$' && i + 1 < n && line.charAt(i + 1) == '$') {
+                sb.append('$');
+                i += 2;
+            } else if (properties && startsWith(line, i, propertyStart)) {
+                int end = indexOf(line, propertyEnd, i + propertyStart.length());
+                if (end < 0) {
+                    sb.append(line, i, n);
+                    break;
+                }
+                String value = getValue(line.subSequence(i + propertyStart.length(), end).toString());
+                if (value == null) {
+                    sb.append(line, i, end + propertyEnd.length());
+                } else {
+                    sb.append(value);
+                    count++;
+                }
+                i = end + propertyEnd.length();
+            } else if (tokenStart != null && startsWith(line, i, tokenStart)) {
+                int end = skipTokenName(line, i + tokenStart.length());
+                String value = (end > i + tokenStart.length() && startsWith(line, end, tokenEnd))
+                               ? getValue(line.subSequence(i + tokenStart.length(), end).toString()) : null;
+                if (value == null) {
+                    // the closing marker may start the next token
+                    sb.append(line, i, end);
+                    i = end;
+                } else {
+                    sb.append(value);
+                    count++;
+                    i = end + tokenEnd.length();
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+
+        expandedLines.incrementAndGet();
+        substitutions.addAndGet(count);
+        nanos.addAndGet(System.nanoTime() - start);
+        return sb;
+    }
+
+    /**
+     * @return lines scanned, lines expanded, replacements and expansion throughput
+     */
+    public String getSummary() {
+        long expanded = expandedLines.get();
+        long time = nanos.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append(lines.get()).append(" lines scanned, ").append(expanded).append(" expanded with ")
+          .append(substitutions.get()).append(" replacements in ").append(StatementStats.millis(time)).append(" ms");
+        if (time > 0) {
+            sb.append(", ").append(Math.round(expanded * 1e9 / time)).append(" lines/s");
+        }
+        return sb.toString();
+    }
+
+    public long getLines() {
+        return lines.get();
+    }
+
+    public long getExpandedLines() {
+        return expandedLines.get();
+    }
+
+    public long getSubstitutions() {
+        return substitutions.get();
+    }
+
+    private String getValue(String name) {
+        String value = values.get(name);
+        if (value == null) {
+            value = resolver.getProperty(name);
+            if (value == null) value = UNDEFINED;
+            values.putIfAbsent(name, value);
+        }
+        return (value == UNDEFINED) ? null : value;
+    }
+
+    /**
+     * @return index of the first property or token start, or -1
+     */
+    private int findMarker(CharSequence line) {
+        char p = propertyStart.charAt(0);
+        char t = (tokenStart == null) ? p : tokenStart.charAt(0);
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            char c = line.charAt(i);
+            if (c == p && startsWith(line, i, propertyStart)) return i;
+            if (c == t && tokenStart != null && isToken(line, i)) return i;
+        }
+        return -1;
+    }
+
+    private boolean hasProperty(CharSequence line, int from) {
+        return indexOf(line, propertyStart, from) >= 0;
+    }
+
+    private boolean isToken(CharSequence line, int i) {
+        int nameStart = i + tokenStart.length();
+        int end = skipTokenName(line, nameStart);
+        return end > nameStart && startsWith(line, end, tokenEnd);
+    }
+
+    private static int skipTokenName(CharSequence line, int i) {
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-')) break;
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence line, int i, String value) {
+        if (i + value.length() > line.length()) return false;
+        for (int k = 0; k < value.length(); k++) {
+            if (line.charAt(i + k) != value.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence line, String value, int from) {
+        int last = line.length() - value.length();
+        for (int i = from; i <= last; i++) {
+            if (startsWith(line, i, value)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,31 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Lines of a script read from a character stream.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ReaderLineSource implements LineSource {
+
+    private final BufferedReader in;
+
+    public ReaderLineSource(Reader reader) {
+        this.in = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    public CharSequence readLine() throws IOException {
+        return in.readLine();
+    }
+
+    public long getOffset() {
+        return -1;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
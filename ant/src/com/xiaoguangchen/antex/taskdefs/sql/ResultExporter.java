@@ -0,0 +1,250 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes result sets to a file as CSV or TSV.
+ *
+ * Fields are quoted when they contain the separator, a quote or a line break, quotes being
+ * doubled (RFC 4180); null values are written as empty fields. Rows are built in one reusable
+ * buffer, encoded into one large byte buffer and written to the file channel, optionally gzip
+ * compressed, when the byte buffer is full.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ResultExporter {
+
+    private static final int  BUFFER_SIZE = 1024 * 1024;
+    private static final char QUOTE       = '"';
+
+    private final File              file;
+    private final FileOutputStream  stream;
+    private final FileChannel       channel;
+    private final GZIPOutputStream  gzip;
+    private final long              initialSize;
+    private final char              separator;
+    private final CharsetEncoder    encoder;
+
+    private final StringBuilder row = new StringBuilder(256);
+    private CharBuffer          chars = CharBuffer.allocate(256);
+    private final ByteBuffer    bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private long rows = 0;
+    private long resultSets = 0;
+    private long written = 0;
+    private long elapsed = 0;
+
+    /**
+     * @param file      file to write
+     * @param append    append to the file instead of overwriting it
+     * @param gzip      gzip compress the output (appending adds a gzip member to the file)
+     * @param separator field separator, ',' for CSV or '\t' for TSV
+     * @param encoding  charset name, null for the platform default
+     */
+    public ResultExporter(File file, boolean append, boolean gzip, char separator, String encoding)
+        throws IOException {
+        Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+        this.encoder = charset.newEncoder()
+                              .onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.separator = separator;
+        this.file = file;
+        this.stream = new FileOutputStream(file, append);
+        this.channel = stream.getChannel();
+        this.initialSize = append ? channel.size() : 0;
+        if (append) channel.position(initialSize);
+        this.gzip = gzip ? new GZIPOutputStream(new ChannelOutputStream(), BUFFER_SIZE) : null;
+    }
+
+    /**
+     * Write all rows of the result set.
+     *
+     * @param rs      result set, not closed
+     * @param headers write the column names as the first row
+     * @return number of rows written, not counting the header
+     */
+    public long export(ResultSet rs, boolean headers) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        long count = 0;
+
+        ResultSetMetaData md = rs.getMetaData();
+        int columnCount = md.getColumnCount();
+
+        if (headers) {
+            row.setLength(0);
+            for (int col = 1; col <= columnCount; col++) {
+                if (col > 1) row.append(separator);
+                appendField(md.getColumnName(col));
+            }
+            writeRow();
+        }
+
+        while (rs.next()) {
+            row.setLength(0);
+            for (int col = 1; col <= columnCount; col++) {
+                if (col > 1) row.append(separator);
+                appendField(rs.getString(col));
+            }
+            writeRow();
+            count++;
+        }
+
+        rows += count;
+        resultSets++;
+        elapsed += System.currentTimeMillis() - start;
+        return count;
+    }
+
+    /**
+     * Write the buffered rows and close the file.
+     */
+    public void close() throws IOException {
+        try {
+            // end the input, stateful charsets write their final shift sequence here
+            chars.clear();
+            chars.limit(0);
+            while (encoder.encode(chars, bytes, true).isOverflow()) {
+                flushBytes();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                flushBytes();
+            }
+            flushBytes();
+            if (gzip != null) gzip.finish();
+            channel.force(false);
+        } finally {
+            stream.close();
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getResultSets() {
+        return resultSets;
+    }
+
+    /**
+     * @return bytes of CSV/TSV text written, before compression
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+
+    /**
+     * @return size added to the file, after compression
+     */
+    public long getFileBytes() {
+        return file.length() - initialSize;
+    }
+
+    /**
+     * @return milliseconds spent exporting result sets
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return one line summary of the export
+     */
+    public String getStatistics() {
+        long rate = (elapsed > 0) ? rows * 1000 / elapsed : rows;
+        StringBuilder sb = new StringBuilder();
+        sb.append(rows).append(" rows in ").append(resultSets).append(" result sets exported to ")
+          .append(file).append(", ").append(written).append(" bytes");
+        if (gzip != null) sb.append(" (").append(getFileBytes()).append(" bytes compressed)");
+        sb.append(" in ").append(elapsed).append(" ms, ").append(rate).append(" rows/sec");
+        return sb.toString();
+    }
+
+    private void appendField(String value) {
+        if (value == null) return;
+
+        boolean quote = false;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c == separator || c == QUOTE || c == '\n' || c == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            row.append(value);
+            return;
+        }
+
+        row.append(QUOTE);
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) row.append(QUOTE);
+            row.append(c);
+        }
+        row.append(QUOTE);
+    }
+
+    private void writeRow() throws IOException {
+        row.append('\n');
+
+        int length = row.length();
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+        }
+        chars.clear();
+        row.getChars(0, length, chars.array(), 0);
+        chars.limit(length);
+
+        while (true) {
+            CoderResult r = encoder.encode(chars, bytes, false);
+            if (r.isOverflow()) {
+                flushBytes();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void flushBytes() throws IOException {
+        bytes.flip();
+        written += bytes.remaining();
+        if (gzip != null) {
+            gzip.write(bytes.array(), 0, bytes.remaining());
+        } else {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Writes the compressed bytes to the file channel.
+     */
+    private class ChannelOutputStream extends OutputStream {
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+/**
+ * Single pass, character level SQL statement splitter used by the sqlex task.
+ *
+ * <p>Lines are fed one at a time with {@link #addLine(CharSequence)}. The splitter keeps the
+ * lexer state (inside a quoted literal, inside a C-style block comment) across lines and
+ * only looks at the characters of the new line, so the cost of splitting a script grows
+ * linearly with its size, no matter how long a single statement (PL/SQL package, huge INSERT)
+ * is.</p>
+ *
+ * <p>Splitting rules, the same as the line based sqlex parser had:</p>
+ * <ul>
+ *   <li>a statement ends when a line ends with the delimiter (normal delimiter type), or when a
+ *       line contains nothing but the delimiter (row delimiter type). Delimiters inside quoted
+ *       literals and comments are ignored.</li>
+ *   <li>statements starting with a block start of the dialect (CREATE OR REPLACE, CREATE TRIGGER,
+ *       CREATE PROCEDURE, CREATE FUNCTION and the vendor ones) are terminated by the block (outer)
+ *       delimiter, all other statements by the statement delimiter.</li>
+ *   <li>"--" comments are kept (Oracle hints), the rest of the line is ended with a new line.</li>
+ *   <li>C-style block comments are removed unless keepformat is set.</li>
+ *   <li>unless keepformat is set, lines are trimmed and joined with a space.</li>
+ * </ul>
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class SQLStatementSplitter {
+
+    private static final int CODE           = 0;
+    private static final int SINGLE_QUOTE   = 1;
+    private static final int DOUBLE_QUOTE   = 2;
+    private static final int BLOCK_COMMENT  = 3;
+
+    /**
+     * block starts common to all dialects
+     */
+    private static final CommentSymbolTrie DEFAULT_BLOCK_STARTS =
+            new CompiledDialect(DialectRegistry.GENERIC).getBlockStarts();
+
+    private static final int HEAD_LENGTH = 32;
+
+    private final String   delimiter;
+    private final String   blockDelimiter;
+    private final boolean  rowDelimiter;
+    private final boolean  keepformat;
+    private final CommentSymbolTrie blockStarts;
+
+    private final StringBuilder sql  = new StringBuilder();
+
+    // single spaced leading code of the current statement
+    private final StringBuilder head = new StringBuilder(HEAD_LENGTH);
+
+    private int      state = CODE;
+    private boolean  newLinePending = false;
+
+    /**
+     * @param delimiter       statement delimiter, may be null (never split)
+     * @param blockDelimiter  delimiter for stored procedures, functions and triggers;
+     *                        if null, the statement delimiter is used
+     * @param rowDelimiter    true if the delimiter is only recognized on a line by itself
+     * @param keepformat      keep the format (line breaks, white spaces and block comments)
+     */
+    public SQLStatementSplitter(String delimiter, String blockDelimiter,
+                                boolean rowDelimiter, boolean keepformat) {
+        this(delimiter, blockDelimiter, rowDelimiter, keepformat, DEFAULT_BLOCK_STARTS);
+    }
+
+    /**
+     * @param blockStarts     statement starts which use the block delimiter, see {@link CompiledDialect}
+     */
+    public SQLStatementSplitter(String delimiter, String blockDelimiter,
+                                boolean rowDelimiter, boolean keepformat, CommentSymbolTrie blockStarts) {
+        this.blockStarts = blockStarts;
+        this.delimiter = delimiter;
+        this.blockDelimiter = (blockDelimiter == null) ? delimiter : blockDelimiter;
+        this.rowDelimiter = rowDelimiter;
+        this.keepformat = keepformat;
+    }
+
+    /**
+     * @return true if the splitter is inside a quoted literal or a block comment,
+     *         i.e. the next line does not start a new piece of code
+     */
+    public boolean isInLiteralOrComment() {
+        return state != CODE;
+    }
+
+    /**
+     * @return true if nothing is buffered
+     */
+    public boolean isEmpty() {
+        return sql.length() == 0;
+    }
+
+    /**
+     * Add a line (without line terminator) to the current statement.
+     *
+     * @param line next line of the script
+     * @return the completed statement without delimiter, or null if the statement is not complete yet
+     */
+    public String addLine(CharSequence line) {
+        int start = 0;
+        int end = line.length();
+        if (!keepformat) {
+            while (start < end && line.charAt(start) <= ' ') start++;
+            while (end > start && line.charAt(end - 1) <= ' ') end--;
+        }
+
+        if (sql.length() > 0) {
+            sql.append((keepformat || newLinePending) ? '\n' : ' ');
+            appendHead(' ');
+        }
+        newLinePending = false;
+
+        boolean codeAtLineStart = (state == CODE);
+        int lineStart = sql.length();
+        int codeEnd = -1; // buffer position right after the last code character of this line
+
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            char next = (i + 1 < end) ? line.charAt(i + 1) : 0;
+
+            switch (state) {
+                case BLOCK_COMMENT:
+                    if (c == '*' && next == '/') {
+                        state = CODE;
+                        i++;
+                        if (keepformat) sql.append("*/");
+                    } else if (keepformat) {
+                        sql.append(c);
+                    }
+                    break;
+
+                case SINGLE_QUOTE:
+                case DOUBLE_QUOTE:
+                    sql.append(c);
+                    codeEnd = sql.length();
+                    if ((state == SINGLE_QUOTE && c == '\'') || (state == DOUBLE_QUOTE && c == '"'))
+                        state = CODE;
+                    break;
+
+                default:
+                    if (c == '-' && next == '-') {
+                        // SQL defines "--" as a comment to EOL and in Oracle it may contain a hint,
+                        // so we cannot just remove it, instead we must end it
+                        sql.append(line, i, end);
+                        newLinePending = true;
+                        i = end;
+                        break;
+                    }
+                    if (c == '/' && next == '*') {
+                        state = BLOCK_COMMENT;
+                        i++;
+                        if (keepformat) {
+                            sql.append("/*");
+                        } else if (sql.length() > 0 && sql.charAt(sql.length() - 1) > ' ') {
+                            sql.append(' ');
+                        }
+                        appendHead(' ');
+                        break;
+                    }
+                    if (c == '\'') state = SINGLE_QUOTE;
+                    else if (c == '"') state = DOUBLE_QUOTE;
+
+                    sql.append(c);
+                    if (c > ' ') codeEnd = sql.length();
+                    appendHead(c);
+            }
+        }
+
+        if (state != CODE) return null;
+
+        String execDelimiter = isBlockStatement() ? blockDelimiter : delimiter;
+        if (execDelimiter == null || execDelimiter.length() == 0) return null;
+
+        if (rowDelimiter) {
+            int first = start;
+            int last = end;
+            while (first < last && line.charAt(first) <= ' ') first++;
+            while (last > first && line.charAt(last - 1) <= ' ') last--;
+            if (codeAtLineStart && equalsIgnoreCase(line, first, last, execDelimiter)) {
+                return emit(Math.max(0, lineStart - 1));
+            }
+            return null;
+        }
+
+        int delimiterStart = codeEnd - execDelimiter.length();
+        if (codeEnd < 0 || delimiterStart < 0
+            || !equalsIgnoreCase(sql, delimiterStart, codeEnd, execDelimiter))
+            return null;
+
+        // a word delimiter (GO, RUN) must not be the tail of another word
+        if (Character.isLetterOrDigit(execDelimiter.charAt(0)) && delimiterStart > 0
+            && Character.isLetterOrDigit(sql.charAt(delimiterStart - 1)))
+            return null;
+
+        return emit(delimiterStart);
+    }
+
+    /**
+     * Return whatever is buffered as the last statement and reset the splitter.
+     *
+     * @return remaining statement, or null if there is nothing left but white spaces
+     */
+    public String flush() {
+        String remaining = emit(sql.length()).trim();
+        state = CODE;
+        return remaining.length() == 0 ? null : remaining;
+    }
+
+    private String emit(int length) {
+        String statement = sql.substring(0, length);
+        sql.setLength(0);
+        head.setLength(0);
+        newLinePending = false;
+        return statement;
+    }
+
+    private void appendHead(char c) {
+        if (head.length() >= HEAD_LENGTH) return;
+        if (c <= ' ') {
+            if (head.length() > 0 && head.charAt(head.length() - 1) != ' ')
+                head.append(' ');
+        } else {
+            head.append(c);
+        }
+    }
+
+    private boolean isBlockStatement() {
+        return blockStarts.matches(head, 0);
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence s, int start, int end, String value) {
+        if (end - start != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char a = s.charAt(start + i);
+            char b = value.charAt(i);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,194 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracking table of the scripts applied to a database.
+ *
+ * The table has one row per script path with the checksum of the script content, when it was
+ * executed, how long it took and whether all its statements succeeded:
+ *
+ * <pre>
+ *   PATH_KEY, SCRIPT_PATH, CHECKSUM, APPLIED_AT, DURATION_MS, SUCCESS
+ * </pre>
+ *
+ * The rows are keyed by the SHA-256 of the path, as long paths go over the index key size of some
+ * databases (767 or 3072 bytes on MySQL, 900 on SQL Server).
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ScriptHistory {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String table;
+
+    /**
+     * @param table name of the tracking table
+     */
+    public ScriptHistory(String table) {
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Create the tracking table if it does not exist yet.
+     *
+     * @param createSql create table statement of the database
+     * @return true if the table was created
+     */
+    public boolean ensureTable(Connection c, String createSql) throws SQLException {
+        if (tableExists(c)) return false;
+
+        Statement s = c.createStatement();
+        try {
+            s.execute(createSql);
+        } finally {
+            s.close();
+        }
+        if (!c.getAutoCommit()) c.commit();
+        return true;
+    }
+
+    /**
+     * @return checksums of the scripts applied successfully, by script path
+     */
+    public Map<String, String> loadApplied(Connection c) throws SQLException {
+        Map<String, String> applied = new HashMap<String, String>();
+        Statement s = c.createStatement();
+        try {
+            ResultSet rs = s.executeQuery("SELECT SCRIPT_PATH, CHECKSUM FROM " + table + " WHERE SUCCESS = 1");
+            try {
+                while (rs.next()) {
+                    applied.put(rs.getString(1), rs.getString(2));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            s.close();
+        }
+        return applied;
+    }
+
+    /**
+     * Record the execution of a script, replacing the previous record of the path.
+     */
+    public void record(Connection c, String path, String checksum, long durationMillis, boolean success)
+        throws SQLException {
+        String key = pathKey(path);
+        PreparedStatement delete = c.prepareStatement("DELETE FROM " + table + " WHERE PATH_KEY = ?");
+        try {
+            delete.setString(1, key);
+            delete.executeUpdate();
+        } finally {
+            delete.close();
+        }
+
+        PreparedStatement insert = c.prepareStatement(
+            "INSERT INTO " + table + " (PATH_KEY, SCRIPT_PATH, CHECKSUM, APPLIED_AT, DURATION_MS, SUCCESS)"
+            + " VALUES (?, ?, ?, ?, ?, ?)");
+        try {
+            insert.setString(1, key);
+            insert.setString(2, path);
+            insert.setString(3, checksum);
+            insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            insert.setLong(5, durationMillis);
+            insert.setInt(6, success ? 1 : 0);
+            insert.executeUpdate();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * SHA-256 checksum of a script, of the decompressed content for compressed scripts.
+     *
+     * @param file script file, may be null
+     * @param text inline statements, may be empty
+     * @return hex encoded checksum
+     */
+    public static String checksum(File file, String text) throws IOException {
+        MessageDigest digest = sha256();
+
+        if (text != null && text.length() > 0) {
+            digest.update(text.getBytes("UTF-8"));
+        }
+        if (file != null) {
+            byte[] buffer = new byte[64 * 1024];
+            InputStream in = ScriptInput.open(file);
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return hex encoded SHA-256 of the UTF-8 path, the key of its row
+     */
+    public static String pathKey(String path) {
+        MessageDigest digest = sha256();
+        try {
+            digest.update(path.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available: " + e.getMessage());
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available: " + e.getMessage());
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    // the table name may be stored in upper or lower case by the database
+    private boolean tableExists(Connection c) throws SQLException {
+        DatabaseMetaData md = c.getMetaData();
+        String[] names = new String[] {table, table.toUpperCase(), table.toLowerCase()};
+        for (String name : names) {
+            ResultSet rs = md.getTables(null, null, name, new String[] {"TABLE"});
+            try {
+                if (rs.next()) return true;
+            } finally {
+                rs.close();
+            }
+        }
+        return false;
+    }
+}
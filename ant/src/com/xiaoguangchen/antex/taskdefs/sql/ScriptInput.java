@@ -0,0 +1,178 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Script files stored compressed or in an archive, read as a stream of decompressed bytes.
+ *
+ * The format is taken from the magic bytes of the file, or from its extension if the file is too short:
+ * gzip (.gz), zip (.zip, .jar) and zlib (.z, .zz, .deflate); other files are read as they are.
+ * An entry of a zip archive is named <code>archive.zip!/path/in/archive.sql</code>; a zip archive named
+ * alone is read entry by entry, in archive order, skipping directories. Files included by an entry with a
+ * relative path resolve to entries of the same archive, relative to the root of the archive when the whole
+ * archive is read.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ScriptInput {
+
+    public enum Format { PLAIN, GZIP, ZIP, ZLIB }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ScriptInput() {
+    }
+
+    /**
+     * @return the archive of a zip entry name, otherwise the file itself
+     */
+    public static File getStoredFile(File file) {
+        int i = getEntrySeparator(file);
+        return (i < 0) ? file : new File(file.getPath().substring(0, i));
+    }
+
+    /**
+     * @return the entry name of a zip entry, with / separators, or null
+     */
+    public static String getEntryName(File file) {
+        int i = getEntrySeparator(file);
+        if (i < 0) return null;
+
+        String entry = file.getPath().substring(i + 1).replace(File.separatorChar, '/');
+        while (entry.startsWith("/")) entry = entry.substring(1);
+        return entry;
+    }
+
+    /**
+     * @return the format of the file; a zip entry is always ZIP
+     */
+    public static Format getFormat(File file) throws IOException {
+        if (getEntrySeparator(file) >= 0) return Format.ZIP;
+
+        byte[] magic = new byte[4];
+        int n = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            int r;
+            while (n < magic.length && (r = in.read(magic, n, magic.length - n)) > 0) n += r;
+        } finally {
+            in.close();
+        }
+
+        int b0 = magic[0] & 0xff;
+        int b1 = magic[1] & 0xff;
+        if (n >= 2 && b0 == 0x1f && b1 == 0x8b) return Format.GZIP;
+        if (n >= 4 && b0 == 'P' && b1 == 'K' && magic[2] == 3 && magic[3] == 4) return Format.ZIP;
+        // deflate with a 32K window and the usual compression levels, not an "x" followed by text
+        if (n >= 2 && b0 == 0x78 && (b1 == 0x01 || b1 == 0x9c || b1 == 0xda)) return Format.ZLIB;
+        if (n >= 4) return Format.PLAIN;
+
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".gz")) return Format.GZIP;
+        if (name.endsWith(".zip") || name.endsWith(".jar")) return Format.ZIP;
+        if (name.endsWith(".z") || name.endsWith(".zz") || name.endsWith(".deflate")) return Format.ZLIB;
+        return Format.PLAIN;
+    }
+
+    /**
+     * @return true if the file is stored compressed or in an archive
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        return getFormat(file) != Format.PLAIN;
+    }
+
+    /**
+     * @return true if the file is a whole zip archive, not one of its entries
+     */
+    public static boolean isArchive(File file) throws IOException {
+        return getEntrySeparator(file) < 0 && file.isFile() && getFormat(file) == Format.ZIP;
+    }
+
+    /**
+     * @return true if the file, or the archive of a zip entry, exists
+     */
+    public static boolean exists(File file) {
+        return getStoredFile(file).isFile();
+    }
+
+    /**
+     * Open the decompressed content of the file.
+     */
+    public static InputStream open(File file) throws IOException {
+        switch (getFormat(file)) {
+            case GZIP:
+                return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+            case ZLIB:
+                return new InflaterInputStream(new FileInputStream(file), new Inflater(), BUFFER_SIZE);
+            case ZIP:
+                return openZip(file);
+            default:
+                return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        }
+    }
+
+    private static InputStream openZip(File file) throws IOException {
+        final ZipFile zip = new ZipFile(getStoredFile(file));
+        try {
+            String name = getEntryName(file);
+            List<InputStream> parts = new ArrayList<InputStream>();
+            if (name != null) {
+                ZipEntry entry = zip.getEntry(name);
+                if (entry == null || entry.isDirectory()) {
+                    throw new FileNotFoundException("no entry " + name + " in " + zip.getName());
+                }
+                parts.add(zip.getInputStream(entry));
+            } else {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) continue;
+                    parts.add(zip.getInputStream(entry));
+                    // the last line of an entry does not run into the next entry
+                    parts.add(new ByteArrayInputStream(new byte[] {'\n'}));
+                }
+            }
+
+            return new SequenceInputStream(Collections.enumeration(parts)) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return index of the ! separating an existing archive from the entry name, or -1
+     */
+    private static int getEntrySeparator(File file) {
+        String path = file.getPath();
+        if (path.indexOf('!') < 0 || file.isFile()) return -1;
+        for (int i = path.indexOf('!'); i > 0; i = path.indexOf('!', i + 1)) {
+            if (new File(path.substring(0, i)).isFile()) return i;
+        }
+        return -1;
+    }
+}
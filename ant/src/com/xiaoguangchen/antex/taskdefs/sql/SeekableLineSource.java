@@ -0,0 +1,153 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Lines of a script file, with the byte offset of each line, starting at any line of the file.
+ *
+ * Lines are split on the bytes of the line terminators and then decoded, so the charset must encode
+ * them as in ASCII (UTF-8, the ISO-8859 and windows code pages for example, not UTF-16);
+ * see {@link #supports}.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class SeekableLineSource implements LineSource {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final CharsetDecoder   decoder;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int          pos = 0;
+    private int          limit = 0;
+    // offset in the file of the next byte to read from buf
+    private long         offset;
+    private boolean      skipLineFeed = false;
+
+    // bytes of a line crossing the end of buf
+    private byte[]       carry = new byte[256];
+    private CharBuffer   chars = CharBuffer.allocate(256);
+
+    /**
+     * @return true if lines of files in this encoding can be read, null for the platform default
+     */
+    public static boolean supports(String encoding) {
+        Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+        ByteBuffer b = charset.encode("\r\n");
+        return b.remaining() == 2 && b.get(0) == '\r' && b.get(1) == '\n';
+    }
+
+    /**
+     * @param file     script file
+     * @param encoding charset name, null for the platform default
+     * @param offset   offset of the first line to read
+     */
+    public SeekableLineSource(File file, String encoding, long offset) throws IOException {
+        Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+        this.decoder = charset.newDecoder()
+                              .onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.file = new RandomAccessFile(file, "r");
+        this.file.seek(offset);
+        this.offset = offset;
+    }
+
+    public CharSequence readLine() throws IOException {
+        int carried = 0;
+        boolean any = false;
+
+        while (true) {
+            if (pos >= limit && !fill()) {
+                return any ? decode(carry, 0, carried) : null;
+            }
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buf[pos] == '\n') {
+                    pos++;
+                    offset++;
+                    continue;
+                }
+            }
+
+            int start = pos;
+            for (int i = start; i < limit; i++) {
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    pos = i + 1;
+                    offset += pos - start;
+                    skipLineFeed = (b == '\r');
+                    if (carried > 0) {
+                        carried = append(carried, start, i);
+                        return decode(carry, 0, carried);
+                    }
+                    return decode(buf, start, i - start);
+                }
+            }
+
+            // the line continues in the next buffer
+            carried = append(carried, start, limit);
+            any = true;
+            offset += limit - start;
+            pos = limit;
+        }
+    }
+
+    public long getOffset() throws IOException {
+        if (skipLineFeed && (pos < limit || fill()) && buf[pos] == '\n') {
+            // the line feed of a \r\n terminator still belongs to the previous line
+            skipLineFeed = false;
+            pos++;
+            offset++;
+        }
+        return offset;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private boolean fill() throws IOException {
+        int n = file.read(buf, 0, buf.length);
+        pos = 0;
+        limit = Math.max(n, 0);
+        return limit > 0;
+    }
+
+    private int append(int carried, int start, int end) {
+        int n = end - start;
+        if (carried + n > carry.length) {
+            byte[] b = new byte[Math.max(carry.length * 2, carried + n)];
+            System.arraycopy(carry, 0, b, 0, carried);
+            carry = b;
+        }
+        System.arraycopy(buf, start, carry, carried, n);
+        return carried + n;
+    }
+
+    private CharSequence decode(byte[] bytes, int start, int length) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, start, length);
+        int capacity = Math.max(chars.capacity(), length);
+        while (true) {
+            if (chars.capacity() < capacity) chars = CharBuffer.allocate(capacity);
+            chars.clear();
+            decoder.reset();
+            CoderResult r = decoder.decode(in, chars, true);
+            if (!r.isOverflow()) r = decoder.flush(chars);
+            if (!r.isOverflow()) break;
+            in.position(start);
+            capacity *= 2;
+        }
+        chars.flip();
+        return chars;
+    }
+}
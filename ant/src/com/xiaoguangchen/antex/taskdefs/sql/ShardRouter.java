@@ -0,0 +1,244 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns the statements of a data load to shards, so they can be executed on several connections.
+ *
+ * Without a key, each target table is assigned to one shard, round robin in order of first appearance,
+ * so the statements of a table keep their order. With a key column, single row INSERTs naming that column
+ * go to the shard of the hash of the key value; the other INSERTs of the table go to the shard of the table.
+ * Only INSERT ... VALUES, UPDATE and DELETE statements are routed, and only when they do not read
+ * other tables (no SELECT); UPDATE and DELETE are not routed with a key, as the rows they change may be
+ * on any shard. Everything else returns -1 and must be executed serially, after the shards are drained.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ShardRouter {
+
+    private final int    shards;
+    private final String keyColumn;
+
+    // table -> shard, and the tables of each shard
+    private final Map<String, Integer> tableShards = new HashMap<String, Integer>();
+    private final List<List<String>>   shardTables = new ArrayList<List<String>>();
+
+    /**
+     * @param shards    number of shards
+     * @param keyColumn column whose value selects the shard of an INSERT, null to route by table only
+     */
+    public ShardRouter(int shards, String keyColumn) {
+        this.shards = shards;
+        this.keyColumn = (keyColumn == null || keyColumn.trim().length() == 0) ? null : keyColumn.trim();
+        for (int i = 0; i < shards; i++) {
+            shardTables.add(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * @return shard of the statement, or -1 if it must be executed serially
+     */
+    public int route(String sql) {
+        String keyword = StatementClassifier.getFirstKeyword(sql);
+        boolean insert = keyword.equals("INSERT");
+        if (!insert && (keyColumn != null || !(keyword.equals("UPDATE") || keyword.equals("DELETE")))) {
+            return -1;
+        }
+
+        int i = StatementClassifier.skipWhiteSpacesAndComments(sql, 0) + keyword.length();
+        i = skipWhiteSpaces(sql, i);
+        if (insert && keywordAt(sql, i, "INTO")) i = skipWhiteSpaces(sql, i + 4);
+        if (keyword.equals("DELETE") && keywordAt(sql, i, "FROM")) i = skipWhiteSpaces(sql, i + 4);
+
+        int nameEnd = skipName(sql, i);
+        if (nameEnd == i || containsKeyword(sql, nameEnd, "SELECT")) return -1;
+        String table = normalize(sql.substring(i, nameEnd));
+
+        if (insert) {
+            int j = skipWhiteSpaces(sql, nameEnd);
+            int columnsStart = -1;
+            int columnsEnd = j;
+            if (j < sql.length() && sql.charAt(j) == '(') {
+                columnsStart = j;
+                columnsEnd = skipParentheses(sql, j);
+                if (columnsEnd < 0) return -1;
+                j = skipWhiteSpaces(sql, columnsEnd);
+            }
+            if (!keywordAt(sql, j, "VALUES")) return -1;
+
+            if (keyColumn != null && columnsStart >= 0) {
+                String key = getKeyValue(sql, columnsStart, columnsEnd, skipWhiteSpaces(sql, j + 6));
+                if (key != null) return (key.hashCode() & 0x7fffffff) % shards;
+            }
+        }
+        return getTableShard(table);
+    }
+
+    /**
+     * @return the tables assigned to the shard, comma separated
+     */
+    public synchronized String getTables(int shard) {
+        StringBuilder sb = new StringBuilder();
+        for (String t : shardTables.get(shard)) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    private synchronized int getTableShard(String table) {
+        Integer shard = tableShards.get(table);
+        if (shard == null) {
+            shard = Integer.valueOf(tableShards.size() % shards);
+            tableShards.put(table, shard);
+            shardTables.get(shard.intValue()).add(table);
+        }
+        return shard.intValue();
+    }
+
+    /**
+     * @return the value of the key column in the single row of values, or null
+     */
+    private String getKeyValue(String sql, int columnsStart, int columnsEnd, int valuesStart) {
+        if (valuesStart >= sql.length() || sql.charAt(valuesStart) != '(') return null;
+        int valuesEnd = skipParentheses(sql, valuesStart);
+        // more than one row
+        if (valuesEnd < 0 || skipWhiteSpaces(sql, valuesEnd) != sql.length()) return null;
+
+        List<String> columns = split(sql, columnsStart + 1, columnsEnd - 1);
+        List<String> values = split(sql, valuesStart + 1, valuesEnd - 1);
+        if (columns.size() != values.size()) return null;
+
+        for (int c = 0; c < columns.size(); c++) {
+            if (unquote(columns.get(c)).equalsIgnoreCase(keyColumn)) return values.get(c);
+        }
+        return null;
+    }
+
+    /**
+     * @return the trimmed comma separated items between start and end, outside literals and parentheses
+     */
+    private static List<String> split(String sql, int start, int end) {
+        List<String> items = new ArrayList<String>();
+        int depth = 0;
+        int itemStart = start;
+        for (int i = start; i < end; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int close = sql.indexOf(c, i + 1);
+                i = (close < 0) ? end : close;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(sql.substring(itemStart, i).trim());
+                itemStart = i + 1;
+            }
+        }
+        items.add(sql.substring(itemStart, end).trim());
+        return items;
+    }
+
+    private static String unquote(String name) {
+        int n = name.length();
+        if (n >= 2 && (name.charAt(0) == '"' || name.charAt(0) == '`' || name.charAt(0) == '[')) {
+            return name.substring(1, n - 1);
+        }
+        return name;
+    }
+
+    /**
+     * @return the table name upper cased outside quotes
+     */
+    private static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        char quote = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                sb.append(c);
+            } else {
+                if (c == '"' || c == '`') quote = c;
+                else if (c == '[') quote = ']';
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return index after the possibly qualified and quoted name starting at i
+     */
+    private static int skipName(String sql, int i) {
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '"' || c == '`' || c == '[') {
+                int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+                if (end < 0) return sql.length();
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return index after the parenthesis closing the one at start, skipping literals, or -1
+     */
+    private static int skipParentheses(String sql, int start) {
+        int depth = 0;
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                if (end < 0) return -1;
+                i = end;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the keyword appears as a word after start, outside literals
+     */
+    private static boolean containsKeyword(String sql, int start, String keyword) {
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                int end = sql.indexOf(c, i + 1);
+                if (end < 0) return false;
+                i = end;
+            } else if (keywordAt(sql, i, keyword) && (i == 0 || !isWordChar(sql.charAt(i - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean keywordAt(String sql, int i, String keyword) {
+        int end = i + keyword.length();
+        return sql.regionMatches(true, i, keyword, 0, keyword.length())
+               && (end == sql.length() || !isWordChar(sql.charAt(end)));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+
+    private static int skipWhiteSpaces(String sql, int i) {
+        while (i < sql.length() && sql.charAt(i) <= ' ') i++;
+        return i;
+    }
+}
@@ -0,0 +1,232 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes a stream of statements on several shards, one worker thread and one bounded queue per shard.
+ *
+ * The statements of a shard are executed in the order they are put. A {@link #barrier} waits until the
+ * workers have executed everything queued before it and have run {@link Worker#barrier} (to commit, for
+ * example), so a statement which cannot be sharded can be executed on its own afterwards; it returns at
+ * once if nothing was put since the previous barrier. When a worker fails, the following puts and barriers
+ * throw its failure; the workers skip what remains in their queues.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ShardedExecutor<T> {
+
+    /**
+     * Executes the statements of the shards, each shard on its own thread.
+     */
+    public interface Worker<T> {
+        /**
+         * @param shard shard the statement was put on
+         * @param owner owner of the statement given to put, for example the transaction
+         * @param sql   statement
+         * @param line  line the statement starts on
+         */
+        void execute(int shard, T owner, String sql, int line) throws Exception;
+
+        /**
+         * Called after the statements queued before a barrier, and after the last statement.
+         */
+        void barrier(int shard) throws Exception;
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private static class Entry<T> {
+        final T              owner;
+        final String         sql;
+        final int            line;
+        final CountDownLatch barrier;
+
+        Entry(T owner, String sql, int line, CountDownLatch barrier) {
+            this.owner = owner;
+            this.sql = sql;
+            this.line = line;
+            this.barrier = barrier;
+        }
+    }
+
+    private final Worker<T>                worker;
+    private final List<BlockingQueue<Entry<T>>> queues;
+    private final Thread[]                 threads;
+    private volatile Exception             failure = null;
+
+    // per shard metrics, each written by its worker
+    private final long[] statements;
+    private final long[] busyNanos;
+    private long         startNanos;
+    private int          barriers = 0;
+    // statements put since the last barrier
+    private boolean      pending = false;
+
+    /**
+     * @param shards   number of shards
+     * @param capacity maximum number of statements queued per shard
+     */
+    public ShardedExecutor(int shards, int capacity, Worker<T> worker) {
+        this.worker = worker;
+        this.queues = new ArrayList<BlockingQueue<Entry<T>>>(shards);
+        this.threads = new Thread[shards];
+        this.statements = new long[shards];
+        this.busyNanos = new long[shards];
+        for (int i = 0; i < shards; i++) {
+            queues.add(new ArrayBlockingQueue<Entry<T>>(Math.max(1, capacity)));
+        }
+    }
+
+    public int getShards() {
+        return queues.size();
+    }
+
+    /**
+     * Start the worker threads.
+     *
+     * @param name thread name prefix
+     */
+    public void start(String name) {
+        startNanos = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            final int shard = i;
+            threads[i] = new Thread(name + "-" + (i + 1)) {
+                public void run() {
+                    work(shard);
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Queue a statement on a shard, waiting while its queue is full.
+     *
+     * @throws Exception the failure of a worker
+     */
+    public void put(int shard, T owner, String sql, int line) throws Exception {
+        offer(shard, new Entry<T>(owner, sql, line, null));
+        pending = true;
+    }
+
+    /**
+     * Wait until every shard has executed the statements queued so far.
+     *
+     * @throws Exception the failure of a worker
+     */
+    public void barrier() throws Exception {
+        rethrow();
+        if (!pending) return;
+
+        CountDownLatch latch = new CountDownLatch(queues.size());
+        Entry<T> e = new Entry<T>(null, null, 0, latch);
+        for (int i = 0; i < queues.size(); i++) {
+            offer(i, e);
+        }
+        latch.await();
+        barriers++;
+        pending = false;
+        rethrow();
+    }
+
+    /**
+     * Execute the queued statements, run the last barrier and stop the workers.
+     *
+     * @throws Exception the failure of a worker
+     */
+    public void finish() throws Exception {
+        try {
+            barrier();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop the workers, skipping the statements still queued.
+     */
+    public void stop() throws InterruptedException {
+        if (failure == null) {
+            failure = new IllegalStateException("sharded execution stopped");
+        }
+        for (Thread t : threads) {
+            if (t != null) {
+                t.interrupt();
+                t.join();
+            }
+        }
+    }
+
+    /**
+     * @return one line per shard: statements, busy time and throughput since the start,
+     *         and the number of barriers
+     */
+    public String getStatistics(ShardRouter router) {
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < queues.size(); i++) {
+            sb.append("shard ").append(i + 1).append(": ").append(statements[i]).append(" statements, ")
+              .append(StatementStats.millis(busyNanos[i])).append(" ms executing, ")
+              .append(Math.round(statements[i] / seconds)).append(" statements/s");
+            String tables = (router == null) ? "" : router.getTables(i);
+            if (tables.length() > 0) sb.append(", tables ").append(tables);
+            sb.append('\n');
+        }
+        sb.append(barriers).append(" barriers");
+        return sb.toString();
+    }
+
+    private void work(int shard) {
+        BlockingQueue<Entry<T>> queue = queues.get(shard);
+        while (true) {
+            Entry<T> e;
+            try {
+                e = queue.take();
+            } catch (InterruptedException ie) {
+                return;
+            }
+
+            if (failure == null) {
+                long start = System.nanoTime();
+                try {
+                    if (e.barrier != null) {
+                        worker.barrier(shard);
+                    } else {
+                        worker.execute(shard, e.owner, e.sql, e.line);
+                        statements[shard]++;
+                    }
+                } catch (Exception ex) {
+                    fail(ex);
+                } catch (Error err) {
+                    fail(new RuntimeException(err));
+                }
+                busyNanos[shard] += System.nanoTime() - start;
+            }
+            if (e.barrier != null) {
+                e.barrier.countDown();
+            }
+        }
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) failure = e;
+    }
+
+    private void rethrow() throws Exception {
+        Exception e = failure;
+        if (e != null) throw e;
+    }
+
+    private void offer(int shard, Entry<T> e) throws Exception {
+        while (true) {
+            rethrow();
+            if (queues.get(shard).offer(e, POLL_MILLIS, TimeUnit.MILLISECONDS)) return;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of callable statements of one connection, keyed by the SQL text.
+ *
+ * Statements taken from the cache must not be closed by the caller; they are closed when
+ * they are evicted or when the cache is closed, which must happen before the connection
+ * is released.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class StatementCache {
+
+    private final Connection conn;
+    private final int        maxSize;
+    private final Map<String, CallableStatement> statements;
+
+    private long hits   = 0;
+    private long misses = 0;
+
+    /**
+     * @param conn    connection the statements are prepared on
+     * @param maxSize maximum number of open statements kept
+     */
+    public StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, CallableStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CallableStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Return the cached statement for the sql, or prepare and cache a new one.
+     */
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        CallableStatement cs = statements.get(sql);
+        if (cs != null) {
+            hits++;
+            cs.clearParameters();
+            return cs;
+        }
+
+        misses++;
+        cs = conn.prepareCall(sql);
+        statements.put(sql, cs);
+        return cs;
+    }
+
+    /**
+     * Close and drop the statement of the sql, for example after it failed.
+     */
+    public void invalidate(String sql) {
+        CallableStatement cs = statements.remove(sql);
+        if (cs != null) closeQuietly(cs);
+    }
+
+    /**
+     * Close all cached statements.
+     */
+    public void close() {
+        for (Iterator<CallableStatement> it = statements.values().iterator(); it.hasNext(); ) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    private static void closeQuietly(CallableStatement cs) {
+        try {
+            cs.close();
+        } catch (SQLException ignore) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+/**
+ * Cheap classification of a parsed SQL statement by its leading keyword.
+ *
+ * Only the first keyword is looked at; leading white spaces and comments are skipped.
+ * No copy of the statement is made.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class StatementClassifier {
+
+    /**
+     * data manipulation keywords which can be sent to the database in a JDBC batch
+     */
+    private static final String[] BATCHABLE_KEYWORDS = new String[] {"INSERT", "UPDATE", "DELETE", "MERGE"};
+
+    /**
+     * @param sql statement
+     * @return upper cased first keyword of the statement, "{" for JDBC escape calls,
+     *         or an empty string if the statement has no code
+     */
+    public static String getFirstKeyword(CharSequence sql) {
+        int start = skipWhiteSpacesAndComments(sql, 0);
+        if (start >= sql.length()) return "";
+
+        if (!Character.isLetter(sql.charAt(start)))
+            return String.valueOf(sql.charAt(start));
+
+        int end = start;
+        while (end < sql.length() && Character.isLetterOrDigit(sql.charAt(end))) end++;
+
+        return sql.subSequence(start, end).toString().toUpperCase();
+    }
+
+    /**
+     * @param sql statement
+     * @return true if the statement is a plain INSERT, UPDATE, DELETE or MERGE statement
+     */
+    public static boolean isBatchable(CharSequence sql) {
+        String keyword = getFirstKeyword(sql);
+        for (String k : BATCHABLE_KEYWORDS) {
+            if (k.equals(keyword)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the first character that is not a white space and not in a comment
+     */
+    static int skipWhiteSpacesAndComments(CharSequence sql, int index) {
+        int length = sql.length();
+        while (index < length) {
+            char c = sql.charAt(index);
+            char next = (index + 1 < length) ? sql.charAt(index + 1) : 0;
+            if (c <= ' ') {
+                index++;
+            } else if (c == '-' && next == '-') {
+                while (index < length && sql.charAt(index) != '\n') index++;
+            } else if (c == '/' && next == '*') {
+                index += 2;
+                while (index < length
+                       && !(sql.charAt(index) == '*' && index + 1 < length && sql.charAt(index + 1) == '/')) {
+                    index++;
+                }
+                index += 2;
+            } else {
+                break;
+            }
+        }
+        return Math.min(index, length);
+    }
+}
@@ -0,0 +1,153 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue between a thread reading and parsing a script and the thread executing its statements.
+ *
+ * The producer runs on its own thread and puts statements into the queue, blocking while it is full;
+ * the consumer runs on the calling thread and executes them in order. If the consumer fails, the
+ * producer is cancelled (its next put throws a {@link CancellationException}); if the producer fails,
+ * the statements queued before the failure are still executed and the failure is then rethrown on the
+ * calling thread, so errors surface in script order as they would without the pipeline.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class StatementPipeline<T> {
+
+    /**
+     * Reads the statements and puts them into the pipeline.
+     */
+    public interface Producer<T> {
+        void produce(StatementPipeline<T> pipeline) throws Exception;
+    }
+
+    /**
+     * Executes a statement.
+     */
+    public interface Consumer<T> {
+        /**
+         * @param owner owner of the statement given to put, for example the transaction
+         * @param sql   statement
+         * @param line  line the statement starts on
+         */
+        void consume(T owner, String sql, int line) throws Exception;
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private static class Entry<T> {
+        final T      owner;
+        final String sql;
+        final int    line;
+
+        Entry(T owner, String sql, int line) {
+            this.owner = owner;
+            this.sql = sql;
+            this.line = line;
+        }
+    }
+
+    private final Entry<T> end = new Entry<T>(null, null, 0);
+
+    private final BlockingQueue<Entry<T>> queue;
+    private volatile boolean  cancelled = false;
+    private volatile Throwable failure = null;
+
+    // metrics
+    private volatile long statements = 0;
+    private volatile long producerWaits = 0;
+    private long consumerWaits = 0;
+
+    /**
+     * @param capacity maximum number of statements parsed ahead of the execution
+     */
+    public StatementPipeline(int capacity) {
+        this.queue = new ArrayBlockingQueue<Entry<T>>(Math.max(1, capacity));
+    }
+
+    /**
+     * Queue a statement, waiting while the queue is full. Called by the producer.
+     *
+     * @throws CancellationException if the consumer stopped
+     */
+    public void put(T owner, String sql, int line) {
+        offer(new Entry<T>(owner, sql, line));
+        statements++;
+    }
+
+    /**
+     * Run the producer on a new thread and the consumer on the calling thread until all statements
+     * are executed or one of them fails.
+     *
+     * @param name thread name of the producer
+     */
+    public void run(String name, final Producer<T> producer, Consumer<T> consumer) throws Exception {
+        Thread thread = new Thread(name) {
+            public void run() {
+                try {
+                    producer.produce(StatementPipeline.this);
+                } catch (CancellationException e) {
+                    return;
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                try {
+                    offer(end);
+                } catch (CancellationException ignore) {
+                    // the consumer stopped
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        boolean done = false;
+        try {
+            while (true) {
+                Entry<T> e = queue.poll();
+                if (e == null) {
+                    consumerWaits++;
+                    e = queue.take();
+                }
+                if (e == end) break;
+                consumer.consume(e.owner, e.sql, e.line);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                cancelled = true;
+                queue.clear();
+            }
+            thread.join();
+        }
+
+        Throwable t = failure;
+        if (t instanceof Exception) throw (Exception) t;
+        if (t instanceof Error) throw (Error) t;
+    }
+
+    /**
+     * @return one line summary of the pipeline usage
+     */
+    public String getStatistics() {
+        return statements + " statements, parser waited " + producerWaits
+               + " times on a full queue, executor waited " + consumerWaits + " times on an empty queue";
+    }
+
+    private void offer(Entry<T> e) {
+        try {
+            if (!cancelled && queue.offer(e)) return;
+            producerWaits++;
+            while (!cancelled) {
+                if (queue.offer(e, POLL_MILLIS, TimeUnit.MILLISECONDS)) return;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        throw new CancellationException("statement execution stopped");
+    }
+}
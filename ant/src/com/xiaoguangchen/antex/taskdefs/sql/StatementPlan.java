@@ -0,0 +1,206 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ordered statements of a dry run, or of a fan-out parsed once for all its targets, with their source locations.
+ *
+ * The plan has one part per transaction, in execution order; parts are filled concurrently, each by
+ * the thread parsing its transaction. The plan file lists one statement per line:
+ * <pre>
+ *   -- transaction name
+ *   source:line&lt;tab&gt;TYPE&lt;tab&gt;statement
+ * </pre>
+ * with new lines, tabs and backslashes of the statements escaped. Sources are given relative to the
+ * project directory (see {@link #getSource}), so plans of two releases can be compared with diff.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class StatementPlan {
+
+    /**
+     * Statements of one transaction.
+     */
+    public static class Part {
+        private final String       name;
+        private final List<String> sources = new ArrayList<String>();
+        private final List<String> sqls    = new ArrayList<String>();
+        private final List<String> types   = new ArrayList<String>();
+        private final List<Integer> lines  = new ArrayList<Integer>();
+
+        Part(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param source file or transaction name the statement comes from
+         * @param line   line of the source the statement starts on
+         */
+        public synchronized void add(String source, int line, String sql) {
+            sources.add(source);
+            lines.add(Integer.valueOf(line));
+            sqls.add(sql);
+            types.add(getType(sql));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized int size() {
+            return sqls.size();
+        }
+
+        public synchronized String getSource(int i) {
+            return sources.get(i);
+        }
+
+        public synchronized int getLine(int i) {
+            return lines.get(i).intValue();
+        }
+
+        public synchronized String getSql(int i) {
+            return sqls.get(i);
+        }
+    }
+
+    /**
+     * Number and total size of the statements of one type.
+     */
+    private static class TypeStats {
+        int  count;
+        long chars;
+    }
+
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * Add the part of the next transaction.
+     */
+    public synchronized Part addPart(String name) {
+        Part p = new Part(name);
+        parts.add(p);
+        return p;
+    }
+
+    /**
+     * @return the parts, in the order they were added
+     */
+    public synchronized List<Part> getParts() {
+        return new ArrayList<Part>(parts);
+    }
+
+    /**
+     * @return path of the file relative to the base directory if it is under it
+     */
+    public static String getSource(File baseDir, File file) {
+        String path = file.getAbsolutePath();
+        String base = (baseDir == null) ? null : baseDir.getAbsolutePath() + File.separator;
+        if (base != null && path.startsWith(base)) {
+            path = path.substring(base.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return upper cased first keyword of the statement, CALL for JDBC escape calls
+     */
+    public static String getType(String sql) {
+        String type = StatementClassifier.getFirstKeyword(sql);
+        if ("{".equals(type)) return "CALL";
+        return (type.length() == 0) ? "EMPTY" : type;
+    }
+
+    /**
+     * @return number of statements and number of statements per type
+     */
+    public synchronized String getSummary() {
+        Map<String, TypeStats> byType = new TreeMap<String, TypeStats>();
+        int count = 0;
+        for (Part p : parts) {
+            synchronized (p) {
+                for (int i = 0; i < p.sqls.size(); i++) {
+                    TypeStats s = byType.get(p.types.get(i));
+                    if (s == null) {
+                        s = new TypeStats();
+                        byType.put(p.types.get(i), s);
+                    }
+                    s.count++;
+                    s.chars += p.sqls.get(i).length();
+                    count++;
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" statements in ").append(parts.size()).append(" transactions");
+        for (Map.Entry<String, TypeStats> e : byType.entrySet()) {
+            TypeStats s = e.getValue();
+            sb.append(", ").append(e.getKey()).append(' ').append(s.count)
+              .append(" (avg ").append(s.chars / s.count).append(" chars)");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the plan; transactions without statements are left out.
+     */
+    public synchronized void write(File file, String encoding) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                             (encoding == null) ? "UTF-8" : encoding));
+        try {
+            for (Part p : parts) {
+                synchronized (p) {
+                    if (p.sqls.isEmpty()) continue;
+
+                    w.write("-- transaction ");
+                    w.write(p.name);
+                    w.write('\n');
+                    for (int i = 0; i < p.sqls.size(); i++) {
+                        w.write(p.sources.get(i));
+                        w.write(':');
+                        w.write(String.valueOf(p.lines.get(i)));
+                        w.write('\t');
+                        w.write(p.types.get(i));
+                        w.write('\t');
+                        writeEscaped(w, p.sqls.get(i));
+                        w.write('\n');
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static void writeEscaped(Writer w, String sql) throws IOException {
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            switch (c) {
+                case '\n':
+                    w.write("\\n");
+                    break;
+                case '\r':
+                    w.write("\\r");
+                    break;
+                case '\t':
+                    w.write("\\t");
+                    break;
+                case '\\':
+                    w.write("\\\\");
+                    break;
+                default:
+                    w.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Execution time of the statements of a sqlex task: latency percentiles, rows affected and
+ * the slowest statements with the file and line they come from, and the time spent in commits. Thread safe.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class StatementStats {
+
+    /**
+     * One timed statement.
+     */
+    public static class Entry {
+        private final String  source;
+        private final int     line;
+        private final String  sql;
+        private final long    nanos;
+        private final long    rows;
+        private final boolean failed;
+
+        Entry(String source, int line, String sql, long nanos, long rows, boolean failed) {
+            this.source = source;
+            this.line = line;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.failed = failed;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * @return source:line, or the source alone when the line is unknown
+         */
+        public String getLocation() {
+            String s = (source == null) ? "unknown" : source;
+            return (line > 0) ? s + ":" + line : s;
+        }
+    }
+
+    private static final Comparator<Entry> FASTEST_FIRST = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            return (a.nanos < b.nanos) ? -1 : ((a.nanos == b.nanos) ? 0 : 1);
+        }
+    };
+
+    private static final double[] PERCENTILES = new double[] {50, 90, 99};
+
+    private final int slowestSize;
+    private final PriorityQueue<Entry> slowest;
+
+    private long[] latencies = new long[1024];
+    private int    count = 0;
+    private long   totalNanos = 0;
+    private long   rows = 0;
+    private long   failures = 0;
+
+    private int    commits = 0;
+    private long   commitNanos = 0;
+    private long   maxCommitNanos = 0;
+
+    /**
+     * @param slowestSize number of slowest statements kept
+     */
+    public StatementStats(int slowestSize) {
+        this.slowestSize = Math.max(0, slowestSize);
+        this.slowest = new PriorityQueue<Entry>(this.slowestSize + 1, FASTEST_FIRST);
+    }
+
+    /**
+     * Record a statement, or a batch of statements.
+     *
+     * @param source file the statement comes from, or the transaction name
+     * @param line   line the statement starts on, 0 if unknown
+     * @param sql    statement
+     * @param nanos  execution time
+     * @param rows   rows affected
+     * @param failed true if the statement failed
+     */
+    public synchronized void record(String source, int line, String sql, long nanos, long rows, boolean failed) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        totalNanos += nanos;
+        this.rows += rows;
+        if (failed) failures++;
+
+        if (slowestSize > 0 && (slowest.size() < slowestSize || slowest.peek().nanos < nanos)) {
+            slowest.add(new Entry(source, line, sql, nanos, rows, failed));
+            if (slowest.size() > slowestSize) slowest.poll();
+        }
+    }
+
+    /**
+     * Record the execution time of a commit.
+     */
+    public synchronized void recordCommit(long nanos) {
+        commits++;
+        commitNanos += nanos;
+        maxCommitNanos = Math.max(maxCommitNanos, nanos);
+    }
+
+    public synchronized int getCommits() {
+        return commits;
+    }
+
+    public synchronized long getCommitNanos() {
+        return commitNanos;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return latency at the percentile in nanoseconds (nearest rank), 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[rank(percentile, count)];
+    }
+
+    /**
+     * @return the slowest statements, slowest first
+     */
+    public synchronized List<Entry> getSlowest() {
+        List<Entry> list = new ArrayList<Entry>(slowest);
+        Collections.sort(list, Collections.reverseOrder(FASTEST_FIRST));
+        return list;
+    }
+
+    /**
+     * @return one line summary: count, total time, percentiles, rows affected, commits
+     */
+    public synchronized String getSummary() {
+        long[] p = percentiles();
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" statements in ").append(millis(totalNanos)).append(" ms");
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            sb.append(", p").append((int) PERCENTILES[i]).append(' ').append(millis(p[i])).append(" ms");
+        }
+        sb.append(", max ").append(millis(p[PERCENTILES.length])).append(" ms, ")
+          .append(rows).append(" rows affected, ").append(failures).append(" failed");
+        if (commits > 0) {
+            sb.append(", ").append(commits).append(" commits in ").append(millis(commitNanos))
+              .append(" ms (max ").append(millis(maxCommitNanos)).append(" ms)");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the statistics and the slowest statements as JSON.
+     */
+    public synchronized void writeReport(File file, String task) throws IOException {
+        long[] p = percentiles();
+
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            w.write("{\n");
+            w.write("  \"task\": " + quote(task) + ",\n");
+            w.write("  \"timestamp\": " + System.currentTimeMillis() + ",\n");
+            w.write("  \"statements\": " + count + ",\n");
+            w.write("  \"failed\": " + failures + ",\n");
+            w.write("  \"rowsAffected\": " + rows + ",\n");
+            w.write("  \"totalMillis\": " + millis(totalNanos) + ",\n");
+            w.write("  \"latencyMillis\": {");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                w.write("\"p" + (int) PERCENTILES[i] + "\": " + millis(p[i]) + ", ");
+            }
+            w.write("\"max\": " + millis(p[PERCENTILES.length]) + "},\n");
+            w.write("  \"commits\": " + commits + ",\n");
+            w.write("  \"commitMillis\": {\"total\": " + millis(commitNanos)
+                    + ", \"max\": " + millis(maxCommitNanos) + "},\n");
+            w.write("  \"slowest\": [");
+            List<Entry> list = getSlowest();
+            for (int i = 0; i < list.size(); i++) {
+                Entry e = list.get(i);
+                w.write((i == 0) ? "\n" : ",\n");
+                w.write("    {\"source\": " + quote(e.source) + ", \"line\": " + e.line
+                        + ", \"millis\": " + millis(e.nanos) + ", \"rows\": " + e.rows
+                        + ", \"failed\": " + e.failed + ", \"sql\": " + quote(e.sql) + "}");
+            }
+            w.write(list.isEmpty() ? "]\n" : "\n  ]\n");
+            w.write("}\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * @return nanoseconds as milliseconds with 3 decimals
+     */
+    public static String millis(long nanos) {
+        long micros = nanos / 1000;
+        String frac = String.valueOf(1000 + micros % 1000).substring(1);
+        return (micros / 1000) + "." + frac;
+    }
+
+    // the percentiles followed by the max, sorting once
+    private long[] percentiles() {
+        long[] p = new long[PERCENTILES.length + 1];
+        if (count == 0) return p;
+
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            p[i] = sorted[rank(PERCENTILES[i], count)];
+        }
+        p[PERCENTILES.length] = sorted[count - 1];
+        return p;
+    }
+
+    private static int rank(double percentile, int n) {
+        int rank = (int) Math.ceil(percentile / 100 * n) - 1;
+        return Math.max(0, Math.min(n - 1, rank));
+    }
+
+    private static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
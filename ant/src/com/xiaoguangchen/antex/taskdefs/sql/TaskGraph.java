@@ -0,0 +1,275 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Dependency graph of named tasks (sqlex transactions) with a list scheduler.
+ *
+ * Tasks declare the names of the tasks they depend on; the graph must be acyclic.
+ * Tasks are run by a fixed number of worker threads. Among the tasks whose dependencies
+ * are done, the one with the longest remaining path (its own weight plus the heaviest
+ * chain of tasks depending on it) is started first, so long running transactions do not
+ * end up running alone at the end.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class TaskGraph<T> {
+
+    /**
+     * Runs one task on a worker thread.
+     */
+    public interface Worker<T> {
+        /**
+         * @param task   task to run
+         * @param worker index of the worker thread, 0 to parallelism - 1
+         */
+        void run(T task, int worker) throws Exception;
+    }
+
+    private class Node {
+        final String   name;
+        final T        task;
+        final long     weight;
+        final String[] dependsOn;
+        final int      order;
+
+        final List<Node> dependents = new ArrayList<Node>();
+        int  pending  = 0;
+        long priority = 0;
+
+        Node(String name, T task, long weight, String[] dependsOn, int order) {
+            this.name = name;
+            this.task = task;
+            this.weight = weight;
+            this.dependsOn = dependsOn;
+            this.order = order;
+        }
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+    // scheduler state, guarded by this
+    private PriorityQueue<Node> ready;
+    private int        running;
+    private int        remaining;
+    private boolean    stopped;
+    private Exception  failure;
+    private final List<T> skipped = new ArrayList<T>();
+
+    /**
+     * Add a task.
+     *
+     * @param name      unique name of the task
+     * @param task      the task
+     * @param weight    estimated cost of the task, for example the script size
+     * @param dependsOn names of the tasks which must be done before this one, may be null
+     */
+    public void add(String name, T task, long weight, String[] dependsOn) {
+        if (nodes.containsKey(name))
+            throw new IllegalArgumentException("duplicated transaction name: " + name);
+
+        nodes.put(name, new Node(name, task, weight,
+                                 dependsOn == null ? new String[0] : dependsOn, nodes.size()));
+    }
+
+    /**
+     * @return tasks in declaration order, moved after their dependencies where needed
+     */
+    public List<T> getSerialOrder() {
+        List<Node> sorted = sort();
+        Collections.sort(sorted, new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                return a.order - b.order;
+            }
+        });
+
+        PriorityQueue<Node> queue = new PriorityQueue<Node>(Math.max(1, sorted.size()), new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                return a.order - b.order;
+            }
+        });
+        for (Node n : sorted) {
+            if (n.pending == 0) queue.add(n);
+        }
+
+        List<T> order = new ArrayList<T>();
+        while (!queue.isEmpty()) {
+            Node n = queue.poll();
+            order.add(n.task);
+            for (Node d : n.dependents) {
+                if (--d.pending == 0) queue.add(d);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return tasks which were not run because a task they depend on failed
+     */
+    public synchronized List<T> getSkipped() {
+        return new ArrayList<T>(skipped);
+    }
+
+    /**
+     * Run all tasks on parallelism worker threads and wait until they are done.
+     *
+     * @param parallelism   number of worker threads
+     * @param worker        runs a task
+     * @param stopOnFailure if true, no new task is started after a task failed
+     * @throws Exception the first failure of a task, after all workers stopped
+     */
+    public void execute(int parallelism, final Worker<T> worker, boolean stopOnFailure) throws Exception {
+        List<Node> sorted = sort();
+
+        synchronized (this) {
+            ready = new PriorityQueue<Node>(Math.max(1, sorted.size()), new Comparator<Node>() {
+                public int compare(Node a, Node b) {
+                    if (a.priority != b.priority) return (a.priority > b.priority) ? -1 : 1;
+                    return a.order - b.order;
+                }
+            });
+            for (Node n : sorted) {
+                if (n.pending == 0) ready.add(n);
+            }
+            running = 0;
+            remaining = sorted.size();
+            stopped = false;
+            failure = null;
+            skipped.clear();
+        }
+
+        final boolean stopAll = stopOnFailure;
+        int threadCount = Math.max(1, Math.min(parallelism, sorted.size()));
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threads[i] = new Thread("sqlex-worker-" + i) {
+                public void run() {
+                    Node n;
+                    while ((n = take()) != null) {
+                        Exception error = null;
+                        try {
+                            worker.run(n.task, index);
+                        } catch (Exception e) {
+                            error = e;
+                        }
+                        done(n, error, stopAll);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        if (failure != null) throw failure;
+    }
+
+    private synchronized Node take() {
+        while (true) {
+            if (stopped || remaining == 0) return null;
+            if (!ready.isEmpty()) {
+                running++;
+                return ready.poll();
+            }
+            if (running == 0) return null; // nothing can become ready any more
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private synchronized void done(Node n, Exception error, boolean stopOnFailure) {
+        running--;
+        remaining--;
+        if (error != null) {
+            if (failure == null) failure = error;
+            if (stopOnFailure) stopped = true;
+            skip(n);
+        } else {
+            for (Node d : n.dependents) {
+                if (--d.pending == 0) ready.add(d);
+            }
+        }
+        notifyAll();
+    }
+
+    // tasks depending on a failed task are never started
+    private void skip(Node failed) {
+        for (Node d : failed.dependents) {
+            if (d.pending > 0) {
+                d.pending = -1;
+                remaining--;
+                skipped.add(d.task);
+                skip(d);
+            }
+        }
+    }
+
+    /**
+     * Resolve the dependencies, check for cycles and compute the priorities.
+     *
+     * @return nodes in topological order
+     */
+    private List<Node> sort() {
+        Map<String, Integer> pending = new HashMap<String, Integer>();
+        for (Node n : nodes.values()) {
+            n.dependents.clear();
+        }
+        for (Node n : nodes.values()) {
+            for (String dep : n.dependsOn) {
+                Node d = nodes.get(dep);
+                if (d == null)
+                    throw new IllegalArgumentException("transaction " + n.name
+                                                       + " depends on unknown transaction " + dep);
+                d.dependents.add(n);
+            }
+            n.pending = n.dependsOn.length;
+            pending.put(n.name, n.pending);
+        }
+
+        List<Node> sorted = new ArrayList<Node>();
+        for (Node n : nodes.values()) {
+            if (n.pending == 0) sorted.add(n);
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            for (Node d : sorted.get(i).dependents) {
+                int p = pending.get(d.name) - 1;
+                pending.put(d.name, p);
+                if (p == 0) sorted.add(d);
+            }
+        }
+
+        if (sorted.size() < nodes.size()) {
+            List<String> cycle = new ArrayList<String>();
+            for (Node n : nodes.values()) {
+                if (pending.get(n.name) > 0) cycle.add(n.name);
+            }
+            throw new IllegalArgumentException("cyclic transaction dependencies: " + cycle);
+        }
+
+        // longest path to the end of the graph, computed in reverse topological order
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            Node n = sorted.get(i);
+            long max = 0;
+            for (Node d : n.dependents) {
+                max = Math.max(max, d.priority);
+            }
+            n.priority = n.weight + max;
+        }
+
+        return sorted;
+    }
+}
@@ -0,0 +1,262 @@
+package com.xiaoguangchen.antex.taskdefs.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token mappings compiled into one Aho-Corasick automaton, rewriting a statement in a single pass.
+ *
+ * Tokens are matched literally. All tokens are searched at once, ignoring case; case sensitive
+ * rules, whole word rules (the token is not part of a longer identifier) and first word rules (the
+ * token starts the statement) are checked on the candidate matches. Overlapping matches are resolved
+ * leftmost first, then longest, then in rule order, and replaced text is not matched again.
+ * Tokens are not looked for in '...' literals, -- line comments and C style block comments.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class TokenMatcher {
+
+    /**
+     * One token mapping.
+     */
+    public static class Rule {
+        final String  from;
+        final String  to;
+        final boolean caseSensitive;
+        final boolean wholeWord;
+        final boolean firstWordOnly;
+
+        /**
+         * @param from          token to replace
+         * @param to            replacement
+         * @param caseSensitive match the case of the token
+         * @param wholeWord     only match the token when it is not part of a longer word
+         * @param firstWordOnly only match the token at the start of the statement
+         */
+        public Rule(String from, String to, boolean caseSensitive, boolean wholeWord, boolean firstWordOnly) {
+            this.from = from;
+            this.to = (to == null) ? "" : to;
+            this.caseSensitive = caseSensitive;
+            this.wholeWord = wholeWord;
+            this.firstWordOnly = firstWordOnly;
+        }
+    }
+
+    private static final int ASCII = 128;
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final Rule[]  rules;
+    // goto function for ASCII characters, state * ASCII + char
+    private final int[]   asciiNext;
+    // trie edges of the other characters, followed with the failure links
+    private final List<Map<Character, Integer>> edges;
+    private final int[]   fail;
+    // rules whose token ends in the state
+    private final int[][] outputs;
+
+    /**
+     * @param rules mappings in priority order; rules with an empty token are ignored
+     */
+    public TokenMatcher(List<Rule> rules) {
+        List<Rule> valid = new ArrayList<Rule>();
+        for (Rule r : rules) {
+            if (r.from != null && r.from.length() > 0) valid.add(r);
+        }
+        this.rules = valid.toArray(new Rule[valid.size()]);
+
+        // trie of the lower cased tokens
+        edges = new ArrayList<Map<Character, Integer>>();
+        edges.add(new HashMap<Character, Integer>());
+        List<List<Integer>> out = new ArrayList<List<Integer>>();
+        out.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < this.rules.length; i++) {
+            int state = 0;
+            String from = this.rules[i].from;
+            for (int j = 0; j < from.length(); j++) {
+                Character c = Character.valueOf(lower(from.charAt(j)));
+                Integer next = edges.get(state).get(c);
+                if (next == null) {
+                    next = Integer.valueOf(edges.size());
+                    edges.add(new HashMap<Character, Integer>());
+                    out.add(new ArrayList<Integer>());
+                    edges.get(state).put(c, next);
+                }
+                state = next.intValue();
+            }
+            out.get(state).add(Integer.valueOf(i));
+        }
+
+        // failure links, breadth first; outputs include the ones of the failure state
+        int size = edges.size();
+        fail = new int[size];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (Integer child : edges.get(0).values()) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst().intValue();
+            for (Map.Entry<Character, Integer> e : edges.get(state).entrySet()) {
+                int child = e.getValue().intValue();
+                int f = fail[state];
+                Integer target;
+                while ((target = edges.get(f).get(e.getKey())) == null && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = (target != null && target.intValue() != child) ? target.intValue() : 0;
+                out.get(child).addAll(out.get(fail[child]));
+                queue.add(Integer.valueOf(child));
+            }
+        }
+
+        outputs = new int[size][];
+        for (int s = 0; s < size; s++) {
+            List<Integer> o = out.get(s);
+            if (o.isEmpty()) {
+                outputs[s] = NO_OUTPUT;
+            } else {
+                outputs[s] = new int[o.size()];
+                for (int k = 0; k < o.size(); k++) outputs[s][k] = o.get(k).intValue();
+            }
+        }
+
+        asciiNext = new int[size * ASCII];
+        for (int s = 0; s < size; s++) {
+            for (char c = 0; c < ASCII; c++) {
+                asciiNext[s * ASCII + c] = step(s, c);
+            }
+        }
+    }
+
+    /**
+     * @return true if there is no token to replace
+     */
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Replace the mapped tokens of the statement.
+     *
+     * @return the rewritten statement, or the statement itself if no token matched
+     */
+    public String rewrite(String sql) {
+        if (sql == null || rules.length == 0) return sql;
+
+        int n = sql.length();
+        int firstWord = 0;
+        while (firstWord < n && Character.isWhitespace(sql.charAt(firstWord))) firstWord++;
+
+        // best rule starting at each position, allocated on the first match
+        int[] best = null;
+
+        int state = 0;
+        for (int i = 0; i < n; i++) {
+            int skip = skipQuoted(sql, i);
+            if (skip > i) {
+                // no token spans a literal or comment
+                i = skip - 1;
+                state = 0;
+                continue;
+            }
+            char c = lower(sql.charAt(i));
+            state = (c < ASCII) ? asciiNext[state * ASCII + c] : step(state, c);
+
+            int[] o = outputs[state];
+            for (int k = 0; k < o.length; k++) {
+                int r = o[k];
+                int start = i + 1 - rules[r].from.length();
+                if (!accept(rules[r], sql, start, i + 1, firstWord)) continue;
+
+                if (best == null) {
+                    best = new int[n];
+                    Arrays.fill(best, -1);
+                }
+                int b = best[start];
+                if (b < 0 || rules[r].from.length() > rules[b].from.length()
+                    || (rules[r].from.length() == rules[b].from.length() && r < b)) {
+                    best[start] = r;
+                }
+            }
+        }
+
+        if (best == null) return sql;
+
+        StringBuilder sb = new StringBuilder(n + 16);
+        int i = 0;
+        while (i < n) {
+            int r = best[i];
+            if (r >= 0) {
+                sb.append(rules[r].to);
+                i += rules[r].from.length();
+            } else {
+                sb.append(sql.charAt(i));
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean accept(Rule rule, String sql, int start, int end, int firstWord) {
+        if (rule.firstWordOnly && start != firstWord) return false;
+        if (rule.caseSensitive && !sql.regionMatches(start, rule.from, 0, rule.from.length())) return false;
+        if (rule.wholeWord) {
+            if (isWordChar(rule.from.charAt(0)) && start > 0 && isWordChar(sql.charAt(start - 1)))
+                return false;
+            if (isWordChar(rule.from.charAt(rule.from.length() - 1)) && end < sql.length()
+                && isWordChar(sql.charAt(end)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return end of the literal or comment starting at i, or i if none starts there
+     */
+    private static int skipQuoted(String sql, int i) {
+        int n = sql.length();
+        char c = sql.charAt(i);
+        if (c == '\'') {
+            // a doubled quote closes and reopens the literal
+            int end = sql.indexOf('\'', i + 1);
+            return (end < 0) ? n : end + 1;
+        }
+        if (i + 1 < n && c == '-' && sql.charAt(i + 1) == '-') {
+            int end = sql.indexOf('\n', i + 2);
+            return (end < 0) ? n : end + 1;
+        }
+        if (i + 1 < n && c == '/' && sql.charAt(i + 1) == '*') {
+            int end = sql.indexOf("*/", i + 2);
+            return (end < 0) ? n : end + 2;
+        }
+        return i;
+    }
+
+    // transition through the trie edges and failure links
+    private int step(int state, char c) {
+        Character key = Character.valueOf(c);
+        while (true) {
+            Integer next = edges.get(state).get(key);
+            if (next != null) return next.intValue();
+            if (state == 0) return 0;
+            state = fail[state];
+        }
+    }
+
+    private static char lower(char c) {
+        if (c < ASCII) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+}
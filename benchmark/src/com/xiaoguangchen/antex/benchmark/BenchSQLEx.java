@@ -0,0 +1,91 @@
+package com.xiaoguangchen.antex.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+
+import org.apache.tools.ant.Project;
+
+import com.xiaoguangchen.antex.taskdefs.SQLEx;
+
+/**
+ * sqlex configured for a vendor without a connection: statements are handed to a sink instead of
+ * being executed, and the protected parsing methods are exposed to the benchmarks.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class BenchSQLEx extends SQLEx {
+
+    /**
+     * Receives the parsed statements.
+     */
+    public interface Sink {
+        void statement(String sql);
+    }
+
+    private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+        public void write(int b) {
+        }
+    });
+
+    private final BenchTransaction transaction;
+    private final String blockDelimiter;
+    private Sink sink;
+
+    /**
+     * @param url       jdbc url selecting the vendor specific comments, redirect and delimiter
+     * @param delimiter block delimiter
+     */
+    public BenchSQLEx(String url, String delimiter) {
+        Project project = new Project();
+        setProject(project);
+        setTaskName("sqlex");
+        setUrl(url);
+        setDelimiter(delimiter);
+        blockDelimiter = delimiter;
+        dbInit();
+
+        transaction = new BenchTransaction();
+        transaction.setTransactionDelimiter(";");
+    }
+
+    public String getBlockDelimiter() {
+        return blockDelimiter;
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Split, filter and parse the script, handing the statements to the sink.
+     */
+    public void runStatements(String script) throws SQLException, IOException {
+        transaction.run(script);
+    }
+
+    public boolean isCommentLine(CharSequence line) {
+        return isStartWithCommentSymbol(line, 0);
+    }
+
+    public String getStatementExecDelimiter(String sql) {
+        return transaction.getStatementExecDelimiter(sql);
+    }
+
+    private class BenchTransaction extends Transaction {
+
+        void run(String script) throws SQLException, IOException {
+            runStatements(new StringReader(script), NULL_OUT);
+        }
+
+        protected String getStatementExecDelimiter(String sql) {
+            return super.getStatementExecDelimiter(sql);
+        }
+
+        protected void executeStatement(String sql, int line, PrintStream out) {
+            sink.statement(sql);
+        }
+    }
+}
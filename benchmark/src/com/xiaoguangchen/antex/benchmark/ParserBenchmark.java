@@ -0,0 +1,121 @@
+package com.xiaoguangchen.antex.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.xiaoguangchen.antex.taskdefs.sql.SQLStatementSplitter;
+
+/**
+ * Throughput of the sqlex parsing hot path on synthetic scripts, without a database.
+ *
+ * <ul>
+ *   <li>runStatements: whole script, from the text to the parsed statements</li>
+ *   <li>splitStatements: statement splitting and block comment removal alone</li>
+ *   <li>parseSQL: token mapping (exec to call) and callable statement conversion</li>
+ *   <li>commentLines: line comment symbol detection</li>
+ *   <li>execDelimiter: block delimiter detection of statements</li>
+ * </ul>
+ *
+ * Each operation processes the whole script (or all its lines or statements).
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"oracle", "sqlserver", "db2", "generic"})
+    public String vendor;
+
+    @Param({"100", "10000"})
+    public int statements;
+
+    @Param({"0.0", "0.5"})
+    public double commentDensity;
+
+    @Param({"10", "200"})
+    public int blockLines;
+
+    private BenchSQLEx sqlex;
+    private String     script;
+    private String[]   lines;
+    private String[]   parsed;
+
+    @Setup
+    public void setup() throws Exception {
+        ScriptGenerator generator = new ScriptGenerator(vendor);
+        sqlex = new BenchSQLEx(generator.getUrl(), generator.getDelimiter());
+        script = generator.generate(statements, commentDensity, blockLines);
+        lines = script.split("\n");
+
+        final List<String> list = new ArrayList<String>();
+        sqlex.setSink(new BenchSQLEx.Sink() {
+            public void statement(String sql) {
+                list.add(sql);
+            }
+        });
+        sqlex.runStatements(script);
+        parsed = list.toArray(new String[list.size()]);
+    }
+
+    @Benchmark
+    public void runStatements(final Blackhole bh) throws Exception {
+        sqlex.setSink(new BenchSQLEx.Sink() {
+            public void statement(String sql) {
+                bh.consume(sql);
+            }
+        });
+        sqlex.runStatements(script);
+    }
+
+    @Benchmark
+    public void splitStatements(Blackhole bh) {
+        SQLStatementSplitter splitter = new SQLStatementSplitter(";", sqlex.getBlockDelimiter(), false, false);
+        for (String line : lines) {
+            String sql = splitter.addLine(line);
+            if (sql != null) bh.consume(sql);
+        }
+        bh.consume(splitter.flush());
+    }
+
+    @Benchmark
+    public void parseSQL(Blackhole bh) {
+        for (String sql : parsed) {
+            bh.consume(sqlex.parseSQL(sql));
+        }
+    }
+
+    @Benchmark
+    public int commentLines() {
+        int comments = 0;
+        for (String line : lines) {
+            if (sqlex.isCommentLine(line)) comments++;
+        }
+        return comments;
+    }
+
+    @Benchmark
+    public void execDelimiter(Blackhole bh) {
+        for (String sql : parsed) {
+            bh.consume(sqlex.getStatementExecDelimiter(sql));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.xiaoguangchen.antex.benchmark;
+
+import java.util.Random;
+
+/**
+ * Synthetic SQL scripts in the style of the supported databases.
+ *
+ * A script is a mix of DML statements and, for one statement in ten, a stored procedure block of the
+ * given number of lines; comment lines and block comments are inserted before statements according
+ * to the comment density. Scripts are generated from a fixed seed so runs are comparable.
+ *
+ * @author chester chen (xiaoguang chen) chesterxgchen@yahoo.com
+ */
+public class ScriptGenerator {
+
+    public static final String ORACLE    = "oracle";
+    public static final String SQLSERVER = "sqlserver";
+    public static final String DB2       = "db2";
+    public static final String GENERIC   = "generic";
+
+    private final String vendor;
+    private final Random random = new Random(42);
+
+    public ScriptGenerator(String vendor) {
+        this.vendor = vendor;
+    }
+
+    /**
+     * @return jdbc url which makes sqlex pick the vendor
+     */
+    public String getUrl() {
+        if (ORACLE.equals(vendor)) return "jdbc:oracle:thin:@localhost:1521:bench";
+        if (SQLSERVER.equals(vendor)) return "jdbc:microsoft:sqlserver://localhost:1433";
+        if (DB2.equals(vendor)) return "jdbc:db2://localhost:50000/bench";
+        return "jdbc:generic://localhost/bench";
+    }
+
+    /**
+     * @return statement delimiter given to sqlex: the block delimiter of the vendor
+     */
+    public String getDelimiter() {
+        if (SQLSERVER.equals(vendor)) return "GO";
+        if (DB2.equals(vendor)) return "@";
+        return "/";
+    }
+
+    /**
+     * @param statements     number of statements
+     * @param commentDensity probability of a comment before a statement, 0 to 1
+     * @param blockLines     number of lines of the stored procedure blocks
+     */
+    public String generate(int statements, double commentDensity, int blockLines) {
+        StringBuilder sb = new StringBuilder(statements * 80);
+        for (int i = 0; i < statements; i++) {
+            if (random.nextDouble() < commentDensity) {
+                appendComment(sb, i);
+            }
+            if (i % 10 == 9) {
+                appendBlock(sb, i, blockLines);
+            } else {
+                appendStatement(sb, i);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void appendComment(StringBuilder sb, int i) {
+        switch (random.nextInt(4)) {
+            case 0:
+                sb.append("-- statement ").append(i).append(": load the customer rows\n");
+                break;
+            case 1:
+                sb.append("/* statement ").append(i).append("\n   spans two lines */\n");
+                break;
+            case 2:
+                sb.append(lineComment()).append(" statement ").append(i).append('\n');
+                break;
+            default:
+                sb.append("REM statement ").append(i).append('\n');
+        }
+    }
+
+    private String lineComment() {
+        if (ORACLE.equals(vendor)) return "PROMPT";
+        if (SQLSERVER.equals(vendor)) return "!!echo";
+        if (DB2.equals(vendor)) return "echo";
+        return "//";
+    }
+
+    private void appendStatement(StringBuilder sb, int i) {
+        switch (i % 4) {
+            case 0:
+                sb.append("INSERT INTO customer (id, name, city)\n    VALUES (").append(i)
+                  .append(", 'name ").append(i).append("', 'it''s; here');\n");
+                break;
+            case 1:
+                sb.append("UPDATE customer SET city = 'Paris' WHERE id = ").append(i).append(";\n");
+                break;
+            case 2:
+                sb.append("SELECT id, name FROM customer WHERE name LIKE '%").append(i).append("%';\n");
+                break;
+            default:
+                sb.append("exec update_stats ").append(i).append(";\n");
+        }
+    }
+
+    private void appendBlock(StringBuilder sb, int i, int lines) {
+        if (ORACLE.equals(vendor)) {
+            sb.append("CREATE OR REPLACE PROCEDURE proc_").append(i).append(" IS\nBEGIN\n");
+            appendBody(sb, lines);
+            sb.append("END;\n/\n");
+        } else if (SQLSERVER.equals(vendor)) {
+            sb.append("CREATE PROCEDURE proc_").append(i).append("\nAS\nBEGIN\n");
+            appendBody(sb, lines);
+            sb.append("END\nGO\n");
+        } else if (DB2.equals(vendor)) {
+            sb.append("CREATE PROCEDURE proc_").append(i).append("()\nLANGUAGE SQL\nBEGIN\n");
+            appendBody(sb, lines);
+            sb.append("END@\n");
+        } else {
+            sb.append("CREATE FUNCTION func_").append(i).append("() RETURNS INT\nBEGIN\n");
+            appendBody(sb, lines);
+            sb.append("  RETURN 1;\nEND;\n/\n");
+        }
+    }
+
+    private void appendBody(StringBuilder sb, int lines) {
+        for (int j = 0; j < lines; j++) {
+            sb.append("  UPDATE customer SET visits = visits + 1 WHERE id = ").append(j).append(";\n");
+        }
+    }
+}